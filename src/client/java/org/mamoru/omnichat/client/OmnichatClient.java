@@ -2,6 +2,7 @@ package org.mamoru.omnichat.client;
 
 import com.mojang.authlib.GameProfile;
 import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientLifecycleEvents;
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.message.v1.ClientReceiveMessageEvents;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
@@ -17,9 +18,14 @@ import org.mamoru.omnichat.client.network.ClientNetworkHandler;
 import org.mamoru.omnichat.client.network.ModelDownloadManager;
 import org.mamoru.omnichat.client.network.VoiceCache;
 import org.mamoru.omnichat.client.screen.DownloadProgressHud;
+import org.mamoru.omnichat.client.tts.AudioCache;
+import org.mamoru.omnichat.client.tts.DiskAudioCache;
 import org.mamoru.omnichat.client.tts.GladosTtsEngine;
 import org.mamoru.omnichat.client.tts.ITtsEngine;
+import org.mamoru.omnichat.client.tts.ModelFingerprint;
 import org.mamoru.omnichat.client.tts.TtsEngine;
+import org.mamoru.omnichat.client.tts.TtsEngineManager;
+import org.mamoru.omnichat.client.tts.TtsEnginePool;
 import org.mamoru.omnichat.client.tts.SpatialAudioPlayer;
 import org.mamoru.omnichat.client.tts.TtsPlaybackWorker;
 import org.slf4j.Logger;
@@ -29,8 +35,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class OmnichatClient implements ClientModInitializer {
     private static final Logger LOGGER = LoggerFactory.getLogger("OmniChat");
@@ -39,7 +43,9 @@ public class OmnichatClient implements ClientModInitializer {
     private static ITtsEngine engine;
     private static TtsPlaybackWorker worker;
     private static ChatMessageHandler chatHandler;
-    private static final Map<String, ITtsEngine> engineCache = new ConcurrentHashMap<>();
+    private static AudioCache audioCache;
+    private static DiskAudioCache diskCache;
+    private static TtsEngineManager engineManager;
 
     @Override
     public void onInitializeClient() {
@@ -52,6 +58,13 @@ public class OmnichatClient implements ClientModInitializer {
             SpatialAudioPlayer.tick();
             ChatBubbleManager.getInstance().tick();
         });
+        // The sound engine is torn down after this, OpenAL must not be touched past it
+        ClientLifecycleEvents.CLIENT_STOPPING.register(client -> {
+            SpatialAudioPlayer.suspend();
+            if (diskCache != null) {
+                diskCache.flush();
+            }
+        });
         ChatBubbleRenderer.register();
 
         // Register chat bubble listener (independent of TTS)
@@ -61,6 +74,13 @@ public class OmnichatClient implements ClientModInitializer {
         ClientNetworkHandler.registerHandlers();
         DownloadProgressHud.register();
 
+        // A re-downloaded model may differ from the one cached audio was rendered with;
+        // it was downloaded because someone uses it, so start loading it right away
+        ModelDownloadManager.getInstance().setOnDownloadComplete(modelName -> {
+            ModelFingerprint.invalidate(modelName);
+            preloadEngine(modelName);
+        });
+
         // Clean up on disconnect
         ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> {
             VoiceCache.getInstance().clear();
@@ -90,10 +110,20 @@ public class OmnichatClient implements ClientModInitializer {
             }
         }
 
-        // Cache the default engine
-        engineCache.put(config.getModelPath(), engine);
+        // The default engine is pinned, other players' voices are loaded on demand within the budget
+        engineManager = new TtsEngineManager(OmnichatConfig.getModelsDir(), OmnichatClient::createPooledEngine,
+                config.getEngineMemoryBudgetBytes(), config.getEngineIdleTimeoutMs());
+        engineManager.setDefault(config.getModelPath(), engine);
 
-        worker = new TtsPlaybackWorker(engine, config);
+        // The audio cache outlives engine reloads, its keys already include the model
+        if (audioCache == null) {
+            audioCache = new AudioCache(config.getAudioCacheBytes());
+        }
+        if (diskCache == null && config.getDiskCacheBytes() > 0) {
+            diskCache = DiskAudioCache.open(OmnichatConfig.getAudioCacheDir(), config.getDiskCacheBytes());
+        }
+
+        worker = new TtsPlaybackWorker(engine, config, audioCache, diskCache);
         worker.start();
 
         if (chatHandler == null) {
@@ -103,40 +133,58 @@ public class OmnichatClient implements ClientModInitializer {
     }
 
     private static ITtsEngine createEngine(OmnichatConfig cfg) {
-        return createEngineForModel(cfg.getResolvedModelDir());
+        return createPooledEngine(cfg.getResolvedModelDir());
+    }
+
+    /**
+     * Loads one instance of the model right away; more are created on demand when several
+     * workers synthesize with it at the same time.
+     */
+    static ITtsEngine createPooledEngine(Path modelDir) {
+        ITtsEngine first = createEngineForModel(modelDir);
+        return new TtsEnginePool(first, () -> createEngineForModel(modelDir), config.getEnginesPerModel());
     }
 
     static ITtsEngine createEngineForModel(Path modelDir) {
         if (Files.exists(modelDir.resolve("dictionary.txt"))) {
             LOGGER.info("Detected GLaDOS-type model in '{}'", modelDir.getFileName());
-            return GladosTtsEngine.create(modelDir);
+            return GladosTtsEngine.create(modelDir, config.getSynthesisThreads());
         }
         return TtsEngine.create(modelDir);
     }
 
     /**
-     * Returns the engine for the given model name, loading and caching it if needed.
-     * Falls back to the default engine if the model is unavailable.
+     * Returns the engine for the given model name if it is loaded, otherwise starts loading it
+     * and returns the default engine. Also falls back if the model is unavailable.
      */
     public static ITtsEngine getEngineForModel(String modelName) {
-        if (modelName == null || modelName.equals(config.getModelPath())) {
+        TtsEngineManager manager = engineManager;
+        if (manager == null) {
             return engine;
         }
+        return manager.getOrFallback(modelName);
+    }
 
-        return engineCache.computeIfAbsent(modelName, name -> {
-            Path modelDir = OmnichatConfig.getModelsDir().resolve(name);
-            if (!Files.isDirectory(modelDir)) {
-                LOGGER.debug("Model '{}' not available locally, using default engine", name);
-                return engine;
-            }
-            try {
-                LOGGER.info("Loading engine for model '{}'", name);
-                return createEngineForModel(modelDir);
-            } catch (Exception e) {
-                LOGGER.warn("Failed to load engine for model '{}', using default: {}", name, e.getMessage());
-                return engine;
-            }
-        });
+    /**
+     * Like {@link #getEngineForModel}, but the engine stays loaded until the lease is closed.
+     */
+    public static TtsEngineManager.Lease acquireEngine(String modelName) {
+        TtsEngineManager manager = engineManager;
+        if (manager == null) {
+            return TtsEngineManager.Lease.unmanaged(engine);
+        }
+        return manager.acquire(modelName);
+    }
+
+    /**
+     * Starts loading a model in the background, e.g. when a nearby player with that voice
+     * starts typing.
+     */
+    public static void preloadEngine(String modelName) {
+        TtsEngineManager manager = engineManager;
+        if (manager != null && modelName != null) {
+            manager.preload(modelName);
+        }
     }
 
     private static ITtsEngine tryFallbackModel() {
@@ -164,12 +212,17 @@ public class OmnichatClient implements ClientModInitializer {
         if (worker != null) {
             worker.shutdown();
         }
-        // Release all cached engines
-        for (ITtsEngine cached : engineCache.values()) {
-            cached.release();
+        // Release all loaded engines
+        if (engineManager != null) {
+            for (TtsEngineManager.EngineStats stats : engineManager.getStats()) {
+                LOGGER.info("Releasing engine '{}' (~{} MB, {} instances)",
+                        stats.modelName(), stats.estimatedBytes() >> 20, stats.instances());
+            }
+            engineManager.shutdown();
+            engineManager = null;
         }
-        engineCache.clear();
         engine = null;
+        ModelFingerprint.invalidateAll();
 
         if (!config.isEnabled()) {
             worker = null;
@@ -210,6 +263,14 @@ public class OmnichatClient implements ClientModInitializer {
         return config;
     }
 
+    public static AudioCache getAudioCache() {
+        return audioCache;
+    }
+
+    public static TtsEngineManager getEngineManager() {
+        return engineManager;
+    }
+
     public static TtsPlaybackWorker getWorker() {
         return worker;
     }
@@ -12,7 +12,6 @@ import net.minecraft.text.Text;
 import net.minecraft.util.math.Vec3d;
 import org.mamoru.omnichat.client.OmnichatClient;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -68,36 +67,6 @@ public class ChatBubbleRenderer {
         });
     }
 
-    private static List<String> wrapText(String text, TextRenderer textRenderer) {
-        List<String> lines = new ArrayList<>();
-        if (textRenderer.getWidth(text) <= MAX_LINE_WIDTH) {
-            lines.add(text);
-            return lines;
-        }
-
-        String[] words = text.split(" ");
-        StringBuilder currentLine = new StringBuilder();
-
-        for (String word : words) {
-            if (currentLine.isEmpty()) {
-                currentLine.append(word);
-            } else {
-                String test = currentLine + " " + word;
-                if (textRenderer.getWidth(test) > MAX_LINE_WIDTH) {
-                    lines.add(currentLine.toString());
-                    currentLine = new StringBuilder(word);
-                } else {
-                    currentLine.append(" ").append(word);
-                }
-            }
-        }
-        if (!currentLine.isEmpty()) {
-            lines.add(currentLine.toString());
-        }
-
-        return lines;
-    }
-
     private static void renderBubble(MinecraftClient client, MatrixStack matrices,
                                       OrderedRenderCommandQueue commandQueue,
                                       CameraRenderState cameraState, UUID playerUuid,
@@ -110,7 +79,7 @@ public class ChatBubbleRenderer {
         double squaredDist = client.player.getEntityPos().squaredDistanceTo(playerPos);
         if (squaredDist > MAX_DISTANCE * MAX_DISTANCE) return;
 
-        List<String> lines = wrapText(text, client.textRenderer);
+        List<String> lines = TextWrapper.wrap(text, MAX_LINE_WIDTH, client.textRenderer::getWidth);
 
         matrices.push();
         matrices.translate(
@@ -8,9 +8,13 @@ import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.network.message.MessageType;
 import net.minecraft.network.message.SignedMessage;
 import net.minecraft.text.Text;
+import org.jetbrains.annotations.Nullable;
 import org.mamoru.omnichat.client.OmnichatClient;
 import org.mamoru.omnichat.client.config.OmnichatConfig;
 import org.mamoru.omnichat.client.network.VoiceCache;
+import org.mamoru.omnichat.client.tts.OnnxMetadata;
+import org.mamoru.omnichat.client.tts.SpatialAudioPlayer;
+import org.mamoru.omnichat.client.tts.TextNormalizer;
 import org.mamoru.omnichat.client.tts.TtsPlaybackWorker;
 import org.mamoru.omnichat.client.tts.TtsRequest;
 import org.mamoru.omnichat.network.VoiceChoice;
@@ -18,13 +22,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Instant;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
 
 public class ChatMessageHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger("OmniChat");
-    private static final double MAX_DISTANCE = 100.0;
+    // Wider than the playback range, the sender may come closer while the message is queued;
+    // audibility is checked again when it is dequeued and before playback
+    public static final double MAX_DISTANCE = 100.0;
 
     private final OmnichatConfig config;
+    // Language of each voice model, empty if it has none; only touched on the client thread
+    private final Map<String, String> modelLanguages = new HashMap<>();
 
     public ChatMessageHandler(OmnichatConfig config) {
         this.config = config;
@@ -63,13 +74,14 @@ public class ChatMessageHandler {
         }
 
         UUID senderUuid = null;
+        double distance = -1;
         if (sender != null) {
             MinecraftClient client = MinecraftClient.getInstance();
             ClientWorld world = client.world;
             if (world != null && client.player != null) {
                 PlayerEntity senderEntity = world.getPlayerByUuid(sender.id());
                 if (senderEntity != null) {
-                    double distance = client.player.getEntityPos().distanceTo(senderEntity.getEntityPos());
+                    distance = client.player.getEntityPos().distanceTo(senderEntity.getEntityPos());
                     if (distance > MAX_DISTANCE) {
                         return;
                     }
@@ -91,7 +103,68 @@ public class ChatMessageHandler {
             }
         }
 
-        LOGGER.debug("Enqueuing TTS for message: {}", text);
-        worker.enqueue(new TtsRequest(text, senderUuid, modelName, speakerId));
+        // Normalized before queueing so duplicates and cache entries match on what is spoken
+        String spoken = TextNormalizer.normalize(text, textLanguage(modelName), config.getMaxPhonemes());
+        if (spoken.isEmpty()) {
+            return;
+        }
+
+        // Positions aren't published while idle; the worker checks audibility against them
+        SpatialAudioPlayer.refresh();
+        long now = System.currentTimeMillis();
+        LOGGER.debug("Enqueuing TTS for message: {}", spoken);
+        worker.enqueue(new TtsRequest(spoken, senderUuid, modelName, speakerId, distance,
+                mentionsLocalPlayer(text), now, now + config.getMessageDeadlineMs()));
+    }
+
+    /**
+     * The language numbers and links are read in: the configured one, or the voice model's. Null
+     * if the model doesn't say or isn't downloaded yet.
+     */
+    @Nullable
+    private String textLanguage(@Nullable String modelName) {
+        String language = config.getTextLanguage();
+        if (!"auto".equalsIgnoreCase(language)) {
+            return language;
+        }
+        String model = modelName != null ? modelName : config.getModelPath();
+        String cached = modelLanguages.get(model);
+        if (cached != null) {
+            return cached.isEmpty() ? null : cached;
+        }
+        // Cached in a sidecar file, but still too slow to read on every message
+        OnnxMetadata metadata = OnnxMetadata.forModel(OmnichatConfig.getModelsDir().resolve(model));
+        if (metadata == null) {
+            return null;
+        }
+        String modelLanguage = metadata.getLanguage();
+        modelLanguages.put(model, modelLanguage != null ? modelLanguage : "");
+        return modelLanguage;
+    }
+
+    private static boolean mentionsLocalPlayer(String text) {
+        MinecraftClient client = MinecraftClient.getInstance();
+        if (client.player == null) {
+            return false;
+        }
+        String name = client.player.getGameProfile().name();
+        if (name == null || name.isEmpty()) {
+            return false;
+        }
+        // Whole words only, so "Alex" isn't mentioned by "Alexander"; names may contain digits and '_'
+        String lower = text.toLowerCase(Locale.ROOT);
+        String needle = name.toLowerCase(Locale.ROOT);
+        for (int i = lower.indexOf(needle); i >= 0; i = lower.indexOf(needle, i + 1)) {
+            int end = i + needle.length();
+            if ((i == 0 || !isNameChar(lower.charAt(i - 1)))
+                    && (end == lower.length() || !isNameChar(lower.charAt(end)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
     }
 }
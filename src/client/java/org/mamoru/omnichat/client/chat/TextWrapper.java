@@ -0,0 +1,49 @@
+package org.mamoru.omnichat.client.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Greedy word wrapping for chat bubbles, independent of the game's font so it can be measured
+ * outside of Minecraft.
+ */
+public final class TextWrapper {
+
+    private TextWrapper() {
+    }
+
+    /**
+     * Splits the text at spaces into lines no wider than {@code maxWidth}; a single word wider
+     * than that gets a line of its own.
+     */
+    public static List<String> wrap(String text, int maxWidth, ToIntFunction<String> width) {
+        List<String> lines = new ArrayList<>();
+        if (width.applyAsInt(text) <= maxWidth) {
+            lines.add(text);
+            return lines;
+        }
+
+        String[] words = text.split(" ");
+        StringBuilder currentLine = new StringBuilder();
+
+        for (String word : words) {
+            if (currentLine.isEmpty()) {
+                currentLine.append(word);
+            } else {
+                String test = currentLine + " " + word;
+                if (width.applyAsInt(test) > maxWidth) {
+                    lines.add(currentLine.toString());
+                    currentLine = new StringBuilder(word);
+                } else {
+                    currentLine.append(" ").append(word);
+                }
+            }
+        }
+        if (!currentLine.isEmpty()) {
+            lines.add(currentLine.toString());
+        }
+
+        return lines;
+    }
+}
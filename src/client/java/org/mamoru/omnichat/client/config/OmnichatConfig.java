@@ -27,6 +27,23 @@ public class OmnichatConfig {
     private int maxQueueSize = 10;
     private boolean showChatBubbles = true;
     private float bubbleTextSpeed = 30.0f;
+    private int synthesisThreads = 0;
+    private int enginesPerModel = 2;
+    private int audioCacheSizeMb = 32;
+    private int diskCacheSizeMb = 256;
+    private int engineMemoryBudgetMb = 1536;
+    private int engineIdleTimeoutSec = 300;
+    private float messageDeadlineSec = 20.0f;
+    private float senderRateLimitPerMin = 20.0f;
+    private int senderBurst = 5;
+    private float duplicateWindowSec = 30.0f;
+    private int coalesceWindowMs = 0;
+    private int maxBatchSize = 4;
+    private int maxVoices = 8;
+    private boolean adaptiveRate = true;
+    private float maxSpeedUp = 1.5f;
+    private int maxPhonemes = 150;
+    private String textLanguage = "auto";
 
     public static Path getConfigDir() {
         return FabricLoader.getInstance().getConfigDir().resolve("omnichat");
@@ -36,6 +53,14 @@ public class OmnichatConfig {
         return getConfigDir().resolve("models");
     }
 
+    public static Path getNativesDir() {
+        return getConfigDir().resolve("cache").resolve("natives");
+    }
+
+    public static Path getAudioCacheDir() {
+        return getConfigDir().resolve("cache").resolve("audio");
+    }
+
     public static Path getConfigFile() {
         return getConfigDir().resolve("config.json");
     }
@@ -117,6 +142,111 @@ public class OmnichatConfig {
         return maxQueueSize;
     }
 
+    /**
+     * Number of parallel synthesis workers; 0 picks a value from the CPU core count.
+     */
+    public int getSynthesisThreads() {
+        if (synthesisThreads > 0) {
+            return synthesisThreads;
+        }
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    public int getEnginesPerModel() {
+        return Math.max(1, enginesPerModel);
+    }
+
+    public long getAudioCacheBytes() {
+        return Math.max(0, audioCacheSizeMb) * 1024L * 1024L;
+    }
+
+    public long getDiskCacheBytes() {
+        return Math.max(0, diskCacheSizeMb) * 1024L * 1024L;
+    }
+
+    public long getEngineMemoryBudgetBytes() {
+        return Math.max(0, engineMemoryBudgetMb) * 1024L * 1024L;
+    }
+
+    public long getEngineIdleTimeoutMs() {
+        return Math.max(10, engineIdleTimeoutSec) * 1000L;
+    }
+
+    /**
+     * How long a message may wait in the queue before it is dropped unspoken.
+     */
+    public long getMessageDeadlineMs() {
+        return (long) (Math.max(1.0f, messageDeadlineSec) * 1000);
+    }
+
+    /**
+     * Sustained number of messages per minute spoken for a single sender.
+     */
+    public float getSenderRateLimitPerMin() {
+        return Math.max(0.1f, senderRateLimitPerMin);
+    }
+
+    public int getSenderBurst() {
+        return Math.max(1, senderBurst);
+    }
+
+    public long getDuplicateWindowMs() {
+        return (long) (Math.max(0.0f, duplicateWindowSec) * 1000);
+    }
+
+    /**
+     * Messages a sender sends within this many milliseconds of each other are spoken as one
+     * utterance; 0 disables coalescing.
+     */
+    public long getCoalesceWindowMs() {
+        return Math.max(0, coalesceWindowMs);
+    }
+
+    /**
+     * Most messages synthesized together in one inference call by engines that support batching;
+     * 1 disables batching.
+     */
+    public int getMaxBatchSize() {
+        return Math.max(1, maxBatchSize);
+    }
+
+    /**
+     * Most messages played at the same time; past this the farthest voice is cut off.
+     */
+    public int getMaxVoices() {
+        return Math.max(1, maxVoices);
+    }
+
+    /**
+     * Whether speech speeds up, pauses shrink and long messages are shortened while a backlog of
+     * messages is waiting.
+     */
+    public boolean isAdaptiveRate() {
+        return adaptiveRate;
+    }
+
+    /**
+     * Largest factor the speed is raised by under backlog, on top of {@code speed}.
+     */
+    public float getMaxSpeedUp() {
+        return Math.clamp(maxSpeedUp, 1.0f, 2.0f);
+    }
+
+    /**
+     * Rough number of phonemes spoken per message before the rest is cut; 0 for no limit.
+     */
+    public int getMaxPhonemes() {
+        return Math.max(0, maxPhonemes);
+    }
+
+    /**
+     * Language numbers and links are read out in, such as "ru" or "en"; "auto" for the language
+     * of the voice model.
+     */
+    public String getTextLanguage() {
+        return textLanguage != null && !textLanguage.isBlank() ? textLanguage.trim() : "auto";
+    }
+
     public void setEnabled(boolean enabled) {
         this.enabled = enabled;
     }
@@ -1,11 +1,17 @@
 package org.mamoru.omnichat.client.network;
 
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.entity.player.PlayerEntity;
+import org.mamoru.omnichat.client.OmnichatClient;
 import org.mamoru.omnichat.client.chat.ChatBubbleManager;
+import org.mamoru.omnichat.client.chat.ChatMessageHandler;
 import org.mamoru.omnichat.network.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.UUID;
+
 public class ClientNetworkHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger("OmniChat");
 
@@ -28,11 +34,13 @@ public class ClientNetworkHandler {
                 new VoiceChoice(payload.modelName(), payload.speakerId()));
         LOGGER.debug("Voice update: {} -> {} (speaker {})",
                 payload.playerUuid(), payload.modelName(), payload.speakerId());
+        preloadIfNearby(context.client(), payload.playerUuid(), payload.modelName());
     }
 
     private static void onVoiceMap(VoiceMapS2CPayload payload, ClientPlayNetworking.Context context) {
         VoiceCache.getInstance().setVoiceMap(payload.voices());
         LOGGER.info("Received voice map with {} entries", payload.voices().size());
+        payload.voices().forEach((uuid, choice) -> preloadIfNearby(context.client(), uuid, choice.modelName()));
     }
 
     private static void onModelFileChunk(ModelFileChunkS2CPayload payload, ClientPlayNetworking.Context context) {
@@ -41,5 +49,23 @@ public class ClientNetworkHandler {
 
     private static void onTypingIndicator(TypingIndicatorS2CPayload payload, ClientPlayNetworking.Context context) {
         ChatBubbleManager.getInstance().setTyping(payload.playerUuid(), payload.typing());
+        if (payload.typing()) {
+            VoiceChoice voice = VoiceCache.getInstance().getVoice(payload.playerUuid());
+            if (voice != null) {
+                preloadIfNearby(context.client(), payload.playerUuid(), voice.modelName());
+            }
+        }
+    }
+
+    /**
+     * Starts loading a player's voice model while they are close enough to be heard, so the
+     * model is ready by the time their next message arrives.
+     */
+    private static void preloadIfNearby(MinecraftClient client, UUID playerUuid, String modelName) {
+        if (client.world == null || client.player == null) return;
+        PlayerEntity player = client.world.getPlayerByUuid(playerUuid);
+        if (player == null || player == client.player) return;
+        if (client.player.getEntityPos().distanceTo(player.getEntityPos()) > ChatMessageHandler.MAX_DISTANCE) return;
+        OmnichatClient.preloadEngine(modelName);
     }
 }
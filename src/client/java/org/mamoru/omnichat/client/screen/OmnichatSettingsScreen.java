@@ -11,11 +11,14 @@ import org.mamoru.omnichat.client.OmnichatClient;
 import org.mamoru.omnichat.client.config.OmnichatConfig;
 import org.mamoru.omnichat.client.network.ModelDownloadManager;
 import org.mamoru.omnichat.client.network.VoiceCache;
+import org.mamoru.omnichat.client.tts.OnnxMetadata;
 import org.mamoru.omnichat.network.VoiceSelectionC2SPayload;
 
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class OmnichatSettingsScreen extends Screen {
     private final Screen parent;
@@ -30,6 +33,7 @@ public class OmnichatSettingsScreen extends Screen {
     private float bubbleTextSpeed;
 
     private List<String> availableModels;
+    private final Map<String, String> modelLanguages = new HashMap<>();
     private final boolean connectedToServer;
 
     public OmnichatSettingsScreen(Screen parent) {
@@ -59,6 +63,15 @@ public class OmnichatSettingsScreen extends Screen {
         if (!availableModels.contains(selectedModel) && !availableModels.isEmpty()) {
             selectedModel = availableModels.get(0);
         }
+
+        // Read from the cached model metadata, so this stays cheap even for large models
+        for (String model : availableModels) {
+            if (!isModelLocal(model)) continue;
+            OnnxMetadata metadata = OnnxMetadata.forModel(OmnichatConfig.getModelsDir().resolve(model));
+            if (metadata != null && metadata.getLanguage() != null) {
+                modelLanguages.put(model, metadata.getLanguage());
+            }
+        }
     }
 
     private boolean isModelLocal(String modelName) {
@@ -69,7 +82,8 @@ public class OmnichatSettingsScreen extends Screen {
         if (connectedToServer && !isModelLocal(modelName)) {
             return modelName + " [↓]";
         }
-        return modelName;
+        String language = modelLanguages.get(modelName);
+        return language != null ? modelName + " (" + language + ")" : modelName;
     }
 
     @Override
@@ -0,0 +1,127 @@
+package org.mamoru.omnichat.client.tts;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory LRU cache of synthesized phrases, stored as int16 samples after effects and before
+ * volume. Bounded by a byte budget rather than an entry count.
+ */
+public class AudioCache {
+    // A single entry may use at most this fraction of the budget, so one wall of text can't flush the cache
+    private static final int MAX_ENTRY_FRACTION = 8;
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, short[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long usedBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public record Key(String model, int speakerId, float speed, boolean robotEffect, String text) {
+        public static Key of(String model, int speakerId, float speed, boolean robotEffect, String text) {
+            return new Key(model, speakerId, speed, robotEffect, normalize(text));
+        }
+    }
+
+    public record Stats(long hits, long misses, int entries, long usedBytes, long maxBytes) {
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+    }
+
+    public AudioCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public short[] get(Key key) {
+        short[] samples;
+        synchronized (this) {
+            samples = entries.get(key);
+        }
+        if (samples != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return samples;
+    }
+
+    /**
+     * Like {@link #get}, but a miss isn't counted. For a lookup that falls back to another key,
+     * so each request is counted once.
+     */
+    public short[] probe(Key key) {
+        short[] samples;
+        synchronized (this) {
+            samples = entries.get(key);
+        }
+        if (samples != null) {
+            hits.incrementAndGet();
+        }
+        return samples;
+    }
+
+    public synchronized void put(Key key, short[] samples) {
+        if (samples.length > getMaxEntrySamples()) {
+            return;
+        }
+        long size = sizeOf(samples);
+        short[] previous = entries.put(key, samples);
+        if (previous != null) {
+            usedBytes -= sizeOf(previous);
+        }
+        usedBytes += size;
+
+        Iterator<Map.Entry<Key, short[]>> it = entries.entrySet().iterator();
+        while (usedBytes > maxBytes && it.hasNext()) {
+            usedBytes -= sizeOf(it.next().getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * Longest utterance, in samples, that is worth recording for the cache.
+     */
+    public int getMaxEntrySamples() {
+        return (int) Math.min(Integer.MAX_VALUE, maxBytes / MAX_ENTRY_FRACTION / 2);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits.get(), misses.get(), entries.size(), usedBytes, maxBytes);
+    }
+
+    /**
+     * Case, surrounding whitespace and repeated spaces don't change how a phrase is spoken.
+     */
+    static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = !sb.isEmpty();
+                continue;
+            }
+            if (space) {
+                sb.append(' ');
+                space = false;
+            }
+            sb.append(c);
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static long sizeOf(short[] samples) {
+        return (long) samples.length * Short.BYTES;
+    }
+}
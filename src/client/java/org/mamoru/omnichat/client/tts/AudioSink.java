@@ -0,0 +1,13 @@
+package org.mamoru.omnichat.client.tts;
+
+/**
+ * Receives synthesized audio chunk by chunk. The array is only valid for the duration of the
+ * call and may be modified in place.
+ */
+@FunctionalInterface
+public interface AudioSink {
+    /**
+     * @return false to stop generation of the remaining chunks
+     */
+    boolean accept(float[] samples, int offset, int length);
+}
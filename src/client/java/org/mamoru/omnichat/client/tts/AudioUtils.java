@@ -1,38 +1,210 @@
 package org.mamoru.omnichat.client.tts;
 
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Audio effects and PCM conversion. The per-sample work runs on a SIMD kernel when the JVM was
+ * started with {@code --add-modules jdk.incubator.vector}, and on a scalar one otherwise.
+ * Launchers don't pass that flag, so players get the scalar kernel unless they add it themselves.
+ */
 public final class AudioUtils {
+    private static final Logger LOGGER = LoggerFactory.getLogger("OmniChat");
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_KERNEL = "org.mamoru.omnichat.client.tts.VectorDspKernel";
+    private static final double RING_MOD_HZ = 40.0;
+    // Entries past the period, so a whole vector can be read at any phase
+    static final int OSCILLATOR_PADDING = 64;
+
+    private static final DspKernel KERNEL = selectKernel();
+    // Ring modulator tables by sample rate
+    private static final Map<Integer, float[]> OSCILLATORS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
 
     private AudioUtils() {
     }
 
+    private static DspKernel selectKernel() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                DspKernel kernel = (DspKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+                LOGGER.info("Audio effects use the Vector API ({} lanes)", kernel.lanes());
+                return kernel;
+            } catch (Throwable e) {
+                LOGGER.warn("Vector API unusable, falling back to scalar audio effects: {}", e.toString());
+            }
+        }
+        return ScalarDspKernel.INSTANCE;
+    }
+
+    public static boolean isVectorized() {
+        return KERNEL != ScalarDspKernel.INSTANCE;
+    }
+
     public static void applyRobotEffect(float[] samples, int sampleRate) {
-        // Ring modulation — metallic tone
-        for (int i = 0; i < samples.length; i++) {
-            samples[i] *= (float) Math.sin(2.0 * Math.PI * 40.0 * i / sampleRate);
+        applyRobotEffect(samples, 0, samples.length, sampleRate, 0);
+    }
+
+    /**
+     * Applies the robot effect to a chunk of a longer stream. {@code streamPosition} is the index
+     * of the chunk's first sample within the whole utterance, so the modulation stays continuous.
+     */
+    public static void applyRobotEffect(float[] samples, int offset, int length, int sampleRate, long streamPosition) {
+        render(samples, offset, length, sampleRate, streamPosition, true, 1.0f, null, 0);
+    }
+
+    /**
+     * Applies the robot effect in place if enabled and writes the result, scaled by the volume, as
+     * int16 to {@code dest}, all in one pass. Ring modulation, bitcrusher, sample-and-hold, volume
+     * and clamping are fused, so each sample is loaded and stored once.
+     */
+    public static void render(float[] samples, int offset, int length, int sampleRate, long streamPosition,
+                              boolean robotEffect, float volume, @Nullable short[] dest, int destOffset) {
+        render(samples, offset, length, sampleRate, streamPosition, robotEffect, volume, dest, null, destOffset);
+    }
+
+    /**
+     * Same as {@link #render(float[], int, int, int, long, boolean, float, short[], int)}, writing
+     * native-order int16 or float32 samples at the position of a direct buffer and advancing it.
+     * The Vector API of Java 21 can't store to buffers, so the kernel fills a per-thread scratch
+     * array that is then bulk-copied.
+     */
+    public static void render(float[] samples, int offset, int length, int sampleRate, long streamPosition,
+                              boolean robotEffect, float volume, ByteBuffer dest, boolean float32) {
+        Scratch scratch = SCRATCH.get();
+        if (float32) {
+            float[] out = scratch.floats(length);
+            render(samples, offset, length, sampleRate, streamPosition, robotEffect, volume, null, out, 0);
+            dest.asFloatBuffer().put(out, 0, length);
+            dest.position(dest.position() + length * Float.BYTES);
+        } else {
+            short[] out = scratch.shorts(length);
+            render(samples, offset, length, sampleRate, streamPosition, robotEffect, volume, out, null, 0);
+            dest.asShortBuffer().put(out, 0, length);
+            dest.position(dest.position() + length * Short.BYTES);
         }
-        // Bitcrusher — quantize to 8 levels
-        for (int i = 0; i < samples.length; i++) {
-            samples[i] = Math.round(samples[i] * 8.0f) / 8.0f;
+    }
+
+    private static void render(float[] samples, int offset, int length, int sampleRate, long streamPosition,
+                               boolean robotEffect, float volume,
+                               @Nullable short[] dest16, @Nullable float[] dest32, int destOffset) {
+        if (!robotEffect) {
+            KERNEL.render(samples, offset, length, null, 0, 1, volume, dest16, dest32, destOffset);
+            return;
         }
-        // Downsample — sample-and-hold with factor 4
-        for (int i = 0; i < samples.length; i += 4) {
-            float held = samples[i];
-            for (int j = 1; j < 4 && i + j < samples.length; j++) {
-                samples[i + j] = held;
+        float[] oscillator = oscillator(sampleRate);
+        int period = oscillator.length - OSCILLATOR_PADDING;
+        KERNEL.render(samples, offset, length, oscillator, (int) (streamPosition % period), period,
+                volume, dest16, dest32, destOffset);
+    }
+
+    /**
+     * One full period of the ring modulator, sampled at the given rate. The modulator repeats
+     * every {@code sampleRate / gcd(sampleRate, 40)} samples, which is at most one second.
+     */
+    private static float[] oscillator(int sampleRate) {
+        return OSCILLATORS.computeIfAbsent(sampleRate, rate -> {
+            int period = rate / gcd(rate, (int) RING_MOD_HZ);
+            float[] table = new float[period + OSCILLATOR_PADDING];
+            for (int t = 0; t < table.length; t++) {
+                table[t] = (float) Math.sin(2.0 * Math.PI * RING_MOD_HZ * (t % period) / rate);
             }
+            return table;
+        });
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int r = a % b;
+            a = b;
+            b = r;
         }
+        return a;
     }
 
     public static byte[] floatPcmToInt16(float[] samples, float volume) {
-        byte[] bytes = new byte[samples.length * 2];
+        return floatPcmToInt16(samples, 0, samples.length, volume);
+    }
+
+    public static byte[] floatPcmToInt16(float[] samples, int offset, int length, float volume) {
+        short[] pcm = new short[length];
+        KERNEL.render(samples, offset, length, null, 0, 1, volume, pcm, null, 0);
+        return int16ToBytes(pcm, 0, length);
+    }
+
+    /**
+     * Packs int16 samples into little-endian PCM.
+     */
+    public static byte[] int16ToBytes(short[] samples, int offset, int length) {
+        byte[] bytes = new byte[length * 2];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(samples, offset, length);
+        return bytes;
+    }
+
+    /**
+     * Converts float samples to int16 without volume, for caching.
+     */
+    public static void floatToInt16(float[] samples, int offset, int length, short[] dest, int destOffset) {
+        KERNEL.render(samples, offset, length, null, 0, 1, 1.0f, dest, null, destOffset);
+    }
+
+    /**
+     * Converts cached int16 samples back to float.
+     */
+    public static float[] int16ToFloat(short[] samples) {
+        float[] floats = new float[samples.length];
         for (int i = 0; i < samples.length; i++) {
-            float val = samples[i] * volume;
-            val = Math.max(-1.0f, Math.min(1.0f, val));
-            short s = (short) (val * Short.MAX_VALUE);
-            // little-endian
-            bytes[i * 2] = (byte) (s & 0xFF);
-            bytes[i * 2 + 1] = (byte) ((s >> 8) & 0xFF);
+            floats[i] = samples[i] / (float) Short.MAX_VALUE;
+        }
+        return floats;
+    }
+
+    /**
+     * Writes cached int16 samples at the position of a direct buffer as native-order int16 or
+     * float32, applying the volume.
+     */
+    public static void int16ToPcm(short[] samples, float volume, ByteBuffer dest, boolean float32) {
+        int position = dest.position();
+        if (float32) {
+            float scale = volume / Short.MAX_VALUE;
+            for (int i = 0; i < samples.length; i++) {
+                dest.putFloat(position + i * Float.BYTES, Math.max(-1.0f, Math.min(1.0f, samples[i] * scale)));
+            }
+            dest.position(position + samples.length * Float.BYTES);
+        } else {
+            for (int i = 0; i < samples.length; i++) {
+                float val = samples[i] * volume;
+                dest.putShort(position + i * Short.BYTES, (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, val)));
+            }
+            dest.position(position + samples.length * Short.BYTES);
+        }
+    }
+
+    /**
+     * Output arrays for the kernel, reused by each synthesis thread.
+     */
+    private static final class Scratch {
+        private short[] shorts = new short[0];
+        private float[] floats = new float[0];
+
+        short[] shorts(int length) {
+            if (shorts.length < length) {
+                shorts = new short[length];
+            }
+            return shorts;
+        }
+
+        float[] floats(int length) {
+            if (floats.length < length) {
+                floats = new float[length];
+            }
+            return floats;
         }
-        return bytes;
     }
 }
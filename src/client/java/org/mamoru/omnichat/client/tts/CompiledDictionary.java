@@ -0,0 +1,252 @@
+package org.mamoru.omnichat.client.tts;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Pronunciation dictionary compiled to phoneme ids and memory-mapped, so loading a model doesn't
+ * parse the text dictionary or keep it on the heap. The compiled file sits next to
+ * {@code dictionary.txt} and is rebuilt whenever the dictionary or the model config changes.
+ * <p>
+ * Layout (little-endian): a header, a table of entry offsets sorted by the UTF-8 bytes of the
+ * word, then the entries: {@code u16 keyLength, key, u16 idCount, int[idCount] ids}.
+ */
+final class CompiledDictionary {
+    private static final Logger LOGGER = LoggerFactory.getLogger("OmniChat");
+
+    static final String FILE_NAME = "dictionary.bin";
+    private static final int MAGIC = 0x4F434449; // "OCDI"
+    private static final int VERSION = 1;
+    // magic, version, stamp, entry count
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+
+    private final ByteBuffer data;
+    private final int entryCount;
+    private final int entriesStart;
+    // Scratch for encoding the word being looked up; callers are single-threaded (see GladosG2P)
+    private byte[] key = new byte[64];
+
+    private CompiledDictionary(ByteBuffer data) {
+        this.data = data;
+        this.entryCount = data.getInt(16);
+        this.entriesStart = HEADER_BYTES + entryCount * Integer.BYTES;
+    }
+
+    /**
+     * Maps the compiled dictionary for {@code dictionaryFile}, compiling it first if it is missing
+     * or out of date. {@code resolve} turns a phoneme into its ids, or null if the model doesn't
+     * know it. If the model directory isn't writable the compiled form is kept in memory instead.
+     */
+    static CompiledDictionary load(Path dictionaryFile, Path configFile, Function<String, int[]> resolve)
+            throws IOException {
+        long stamp = stamp(dictionaryFile, configFile);
+        Path compiled = dictionaryFile.resolveSibling(FILE_NAME);
+        if (Files.exists(compiled)) {
+            ByteBuffer mapped = map(compiled);
+            if (mapped.capacity() >= HEADER_BYTES && mapped.getInt(0) == MAGIC
+                    && mapped.getInt(4) == VERSION && mapped.getLong(8) == stamp) {
+                return new CompiledDictionary(mapped);
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        ByteBuffer built = compile(dictionaryFile, stamp, resolve);
+        try {
+            // Another engine instance may be compiling the same dictionary right now
+            Path temp = compiled.resolveSibling(FILE_NAME + ".tmp-" + ProcessHandle.current().pid()
+                    + "-" + Thread.currentThread().threadId());
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (built.hasRemaining()) {
+                    channel.write(built);
+                }
+            }
+            Files.move(temp, compiled, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.info("Compiled pronunciation dictionary for '{}' in {} ms",
+                    dictionaryFile.getParent().getFileName(), System.currentTimeMillis() - start);
+            return new CompiledDictionary(map(compiled));
+        } catch (IOException e) {
+            LOGGER.warn("Failed to save compiled dictionary, keeping it in memory: {}", e.getMessage());
+            return new CompiledDictionary(built.rewind());
+        }
+    }
+
+    int size() {
+        return entryCount;
+    }
+
+    /**
+     * Returns the entry for the word, or -1 if it isn't in the dictionary. The word must already
+     * be lowercased.
+     */
+    int find(CharSequence word) {
+        int keyLength = encode(word);
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = entriesStart + data.getInt(HEADER_BYTES + mid * Integer.BYTES);
+            int cmp = compareKey(entry, keyLength);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    int idCount(int entry) {
+        return data.getShort(idsStart(entry) - 2) & 0xFFFF;
+    }
+
+    int id(int entry, int index) {
+        return data.getInt(idsStart(entry) + index * Integer.BYTES);
+    }
+
+    private int idsStart(int entry) {
+        int keyLength = data.getShort(entry) & 0xFFFF;
+        return entry + 2 + keyLength + 2;
+    }
+
+    private int compareKey(int entry, int keyLength) {
+        int entryKeyLength = data.getShort(entry) & 0xFFFF;
+        int length = Math.min(entryKeyLength, keyLength);
+        for (int i = 0; i < length; i++) {
+            int cmp = Integer.compare(data.get(entry + 2 + i) & 0xFF, key[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(entryKeyLength, keyLength);
+    }
+
+    /**
+     * Encodes the word as UTF-8 into {@link #key} and returns its length.
+     */
+    private int encode(CharSequence word) {
+        if (key.length < word.length() * 3) {
+            key = new byte[word.length() * 3];
+        }
+        int length = 0;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (c < 0x80) {
+                key[length++] = (byte) c;
+            } else if (c < 0x800) {
+                key[length++] = (byte) (0xC0 | c >> 6);
+                key[length++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < word.length()
+                    && Character.isLowSurrogate(word.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, word.charAt(++i));
+                key[length++] = (byte) (0xF0 | cp >> 18);
+                key[length++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                key[length++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                key[length++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, encoded as '?' like String.getBytes does
+                key[length++] = '?';
+            } else {
+                key[length++] = (byte) (0xE0 | c >> 12);
+                key[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                key[length++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return length;
+    }
+
+    private record Entry(byte[] key, int[] ids) {}
+
+    private static ByteBuffer compile(Path dictionaryFile, long stamp, Function<String, int[]> resolve)
+            throws IOException {
+        // Later lines win, as they did when the dictionary was a map
+        Map<String, int[]> words = new HashMap<>();
+        Map<String, int[]> resolved = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(dictionaryFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                int spaceIdx = line.indexOf(' ');
+                if (spaceIdx < 0) continue;
+                String word = line.substring(0, spaceIdx);
+                int[] ids = new int[0];
+                for (String p : line.substring(spaceIdx + 1).trim().split("\\s+")) {
+                    if (p.isEmpty()) continue;
+                    int[] phonemeIds = resolved.computeIfAbsent(p, resolve);
+                    if (phonemeIds == null) continue;
+                    int[] joined = Arrays.copyOf(ids, ids.length + phonemeIds.length);
+                    System.arraycopy(phonemeIds, 0, joined, ids.length, phonemeIds.length);
+                    ids = joined;
+                }
+                words.put(word, ids);
+            }
+        }
+
+        List<Entry> entries = new ArrayList<>(words.size());
+        long size = HEADER_BYTES;
+        for (Map.Entry<String, int[]> word : words.entrySet()) {
+            byte[] keyBytes = word.getKey().getBytes(StandardCharsets.UTF_8);
+            if (keyBytes.length > 0xFFFF || word.getValue().length > 0xFFFF) continue;
+            entries.add(new Entry(keyBytes, word.getValue()));
+            size += Integer.BYTES + 2 + keyBytes.length + 2 + (long) word.getValue().length * Integer.BYTES;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Dictionary too large to compile: " + dictionaryFile);
+        }
+        entries.sort((a, b) -> Arrays.compareUnsigned(a.key(), b.key()));
+
+        ByteBuffer out = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC).putInt(VERSION).putLong(stamp).putInt(entries.size());
+        int offset = 0;
+        for (Entry entry : entries) {
+            out.putInt(offset);
+            offset += 2 + entry.key().length + 2 + entry.ids().length * Integer.BYTES;
+        }
+        for (Entry entry : entries) {
+            out.putShort((short) entry.key().length).put(entry.key());
+            out.putShort((short) entry.ids().length);
+            for (int id : entry.ids()) {
+                out.putInt(id);
+            }
+        }
+        return out.flip();
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return mapped.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Identifies the dictionary and config versions the compiled file was built from.
+     */
+    private static long stamp(Path dictionaryFile, Path configFile) throws IOException {
+        String identity = Files.size(dictionaryFile) + "|" + Files.getLastModifiedTime(dictionaryFile).toMillis()
+                + "|" + Files.size(configFile) + "|" + Files.getLastModifiedTime(configFile).toMillis();
+        return ByteBuffer.wrap(ModelFingerprint.sha256(identity.getBytes(StandardCharsets.UTF_8))).getLong();
+    }
+}
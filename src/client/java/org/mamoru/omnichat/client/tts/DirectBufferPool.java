@@ -0,0 +1,65 @@
+package org.mamoru.omnichat.client.tts;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * Direct buffers for PCM chunks, reused so that streaming doesn't allocate native memory for
+ * every chunk. Capacities are rounded up to a power of two, and at most {@code maxRetainedBytes}
+ * of idle buffers are kept. Buffers are in native byte order, as OpenAL expects.
+ */
+final class DirectBufferPool {
+    private static final int MIN_SHIFT = 12;  // 4 KiB
+    private static final int MAX_SHIFT = 22;  // 4 MiB; bigger buffers aren't pooled
+
+    private final long maxRetainedBytes;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<ByteBuffer>[] free = new ArrayDeque[MAX_SHIFT - MIN_SHIFT + 1];
+    private long retainedBytes;
+
+    DirectBufferPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Returns a buffer with position 0 and limit {@code bytes}.
+     */
+    ByteBuffer acquire(int bytes) {
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, bytes) - 1));
+        if (shift > MAX_SHIFT) {
+            return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+        ByteBuffer buffer;
+        synchronized (this) {
+            buffer = free[shift - MIN_SHIFT].pollLast();
+            if (buffer != null) {
+                retainedBytes -= buffer.capacity();
+            }
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(1 << shift).order(ByteOrder.nativeOrder());
+        }
+        return buffer.clear().limit(bytes);
+    }
+
+    /**
+     * Hands a buffer from {@link #acquire} back. It must not be used afterwards.
+     */
+    void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        int shift = Integer.numberOfTrailingZeros(capacity);
+        if (Integer.bitCount(capacity) != 1 || shift < MIN_SHIFT || shift > MAX_SHIFT) {
+            return;
+        }
+        synchronized (this) {
+            if (retainedBytes + capacity <= maxRetainedBytes) {
+                free[shift - MIN_SHIFT].addLast(buffer);
+                retainedBytes += capacity;
+            }
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package org.mamoru.omnichat.client.tts;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache of synthesized phrases. Each phrase is stored in its own file named after the
+ * SHA-256 of its cache key and the model fingerprint, so replacing a model file simply stops its old
+ * entries from being found until they are evicted. A fixed-size open-addressing index in a
+ * memory-mapped file tracks entry sizes and last access times for size-capped LRU eviction.
+ * <p>
+ * Only index updates happen under the monitor; entry files are read, written and deleted outside
+ * it. A file lock keeps a second game instance from sharing the index, that one runs without a
+ * disk cache. Files the index lost track of, after a crash or an overwritten slot, are removed
+ * when the cache is opened.
+ */
+public class DiskAudioCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger("OmniChat");
+
+    private static final int INDEX_MAGIC = 0x4F434143; // "OCAC"
+    private static final int INDEX_VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int SLOT_BYTES = 32;
+    private static final int CAPACITY = 8192;
+    // Keep the table sparse so probe chains stay short
+    private static final int MAX_ENTRIES = CAPACITY * 3 / 4;
+
+    private static final int FILE_MAGIC = 0x4F435043; // "OCPC"
+    private static final int FILE_HEADER_BYTES = 12;
+
+    private static final int SIZE_EMPTY = 0;
+    private static final int SIZE_DELETED = -1;
+
+    private final Path dir;
+    private final long maxBytes;
+    private final MappedByteBuffer index;
+    // Held for the life of the process
+    private final FileLock lock;
+    private long usedBytes;
+    private int entryCount;
+    private int tombstones;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public record Stats(long hits, long misses, int entries, long usedBytes, long maxBytes) {}
+
+    private DiskAudioCache(Path dir, long maxBytes, MappedByteBuffer index, FileLock lock) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.index = index;
+        this.lock = lock;
+    }
+
+    /**
+     * Opens (or creates) the cache in the given directory. Returns null if the directory can't be
+     * used or another game instance has it open, in which case the caller simply runs without a
+     * disk cache.
+     */
+    @Nullable
+    public static DiskAudioCache open(Path dir, long maxBytes) {
+        FileLock lock = null;
+        try {
+            Files.createDirectories(dir);
+            lock = tryLock(dir.resolve("index.lock"));
+            if (lock == null) {
+                LOGGER.info("Disk audio cache in '{}' is used by another game instance, running without it", dir);
+                return null;
+            }
+            Path indexFile = dir.resolve("index.bin");
+            long indexSize = HEADER_BYTES + (long) CAPACITY * SLOT_BYTES;
+            MappedByteBuffer index;
+            try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // The mapping stays valid after the channel is closed
+                index = channel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize);
+            }
+            index.order(ByteOrder.LITTLE_ENDIAN);
+
+            DiskAudioCache cache = new DiskAudioCache(dir, maxBytes, index, lock);
+            cache.load();
+            return cache;
+        } catch (IOException e) {
+            LOGGER.warn("Disk audio cache unavailable in '{}': {}", dir, e.getMessage());
+            if (lock != null) {
+                try {
+                    lock.channel().close();
+                } catch (IOException ignored) {
+                }
+            }
+            return null;
+        }
+    }
+
+    @Nullable
+    private static FileLock tryLock(Path lockFile) throws IOException {
+        FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.tryLock();
+            if (lock != null) {
+                return lock;
+            }
+        } catch (OverlappingFileLockException e) {
+            // Already open in this process
+        }
+        channel.close();
+        return null;
+    }
+
+    @Nullable
+    public short[] get(AudioCache.Key key, String modelFingerprint) {
+        byte[] hash = hashKey(key, modelFingerprint);
+        boolean indexed;
+        synchronized (this) {
+            indexed = findSlot(hash) >= 0;
+        }
+        short[] samples = indexed ? readEntry(hash) : null;
+        if (indexed) {
+            synchronized (this) {
+                // Looked up again, the entry may have been evicted meanwhile
+                int slot = findSlot(hash);
+                if (slot >= 0) {
+                    if (samples != null) {
+                        index.putLong(slotOffset(slot) + 16, System.currentTimeMillis());
+                    } else {
+                        // File vanished or is damaged
+                        removeSlot(slot);
+                    }
+                }
+            }
+        }
+        if (samples != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return samples;
+    }
+
+    public void put(AudioCache.Key key, String modelFingerprint, short[] samples) {
+        int size = FILE_HEADER_BYTES + samples.length * Short.BYTES;
+        if (size > maxBytes / 8) {
+            return;
+        }
+        byte[] hash = hashKey(key, modelFingerprint);
+        synchronized (this) {
+            if (findSlot(hash) >= 0) {
+                return;
+            }
+        }
+
+        try {
+            writeEntry(hash, samples);
+        } catch (IOException e) {
+            LOGGER.debug("Failed to write disk audio cache entry: {}", e.getMessage());
+            return;
+        }
+
+        List<Path> evicted = List.of();
+        synchronized (this) {
+            // Another thread may have stored the same phrase meanwhile, the file is the same
+            if (findSlot(hash) >= 0) {
+                return;
+            }
+            if (usedBytes + size > maxBytes || entryCount >= MAX_ENTRIES) {
+                evicted = evict(Math.max(0, maxBytes * 9 / 10 - size), MAX_ENTRIES * 9 / 10);
+            }
+            int slot = insertSlot(hash);
+            int offset = slotOffset(slot);
+            index.put(offset, hash, 0, 16);
+            index.putLong(offset + 16, System.currentTimeMillis());
+            index.putInt(offset + 24, size);
+            usedBytes += size;
+            entryCount++;
+        }
+        for (Path file : evicted) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                LOGGER.debug("Failed to delete disk audio cache entry: {}", e.getMessage());
+            }
+        }
+        if (!evicted.isEmpty()) {
+            // Once the files are gone, a crash must not bring back an index that still lists them
+            index.force();
+        }
+    }
+
+    /**
+     * Writes the index out to disk, e.g. when the game closes.
+     */
+    public void flush() {
+        index.force();
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits.get(), misses.get(), entryCount, usedBytes, maxBytes);
+    }
+
+    private void load() throws IOException {
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != INDEX_VERSION || index.getInt(8) != CAPACITY) {
+            reset();
+            return;
+        }
+        for (int slot = 0; slot < CAPACITY; slot++) {
+            int size = index.getInt(slotOffset(slot) + 24);
+            if (size > 0) {
+                usedBytes += size;
+                entryCount++;
+            } else if (size == SIZE_DELETED) {
+                tombstones++;
+            }
+        }
+        reconcile();
+        compactIfNeeded();
+        LOGGER.info("Disk audio cache: {} entries, {} KB", entryCount, usedBytes / 1024);
+    }
+
+    /**
+     * Deletes entry files the index doesn't list and leftover temporary files, and drops index
+     * entries whose file is gone, so the size cap bounds what is actually on disk.
+     */
+    private void reconcile() throws IOException {
+        Set<String> present = new HashSet<>();
+        int orphans = 0;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    // Nothing else writes here while the lock is held
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(".pcm")) {
+                    String hex = name.substring(0, name.length() - ".pcm".length());
+                    if (isIndexed(hex)) {
+                        present.add(hex);
+                    } else {
+                        Files.deleteIfExists(file);
+                        orphans++;
+                    }
+                }
+            }
+        }
+        int missing = 0;
+        byte[] hash = new byte[16];
+        for (int slot = 0; slot < CAPACITY; slot++) {
+            int offset = slotOffset(slot);
+            if (index.getInt(offset + 24) > 0) {
+                index.get(offset, hash, 0, 16);
+                if (!present.contains(HexFormat.of().formatHex(hash))) {
+                    removeSlot(slot);
+                    missing++;
+                }
+            }
+        }
+        if (orphans > 0 || missing > 0) {
+            LOGGER.info("Disk audio cache: removed {} unindexed files and {} entries without a file", orphans, missing);
+            index.force();
+        }
+    }
+
+    private boolean isIndexed(String hex) {
+        if (hex.length() != 32) {
+            return false;
+        }
+        try {
+            return findSlot(HexFormat.of().parseHex(hex)) >= 0;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void reset() throws IOException {
+        for (int i = 0; i < index.capacity(); i++) {
+            index.put(i, (byte) 0);
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            List<Path> entries = files
+                    .filter(p -> p.getFileName().toString().endsWith(".pcm") || p.getFileName().toString().endsWith(".tmp"))
+                    .toList();
+            for (Path file : entries) {
+                Files.deleteIfExists(file);
+            }
+        }
+        index.putInt(0, INDEX_MAGIC);
+        index.putInt(4, INDEX_VERSION);
+        index.putInt(8, CAPACITY);
+        usedBytes = 0;
+        entryCount = 0;
+        tombstones = 0;
+    }
+
+    /**
+     * Drops least recently used entries from the index until both limits are met. Returns their
+     * files for the caller to delete outside the monitor.
+     */
+    private List<Path> evict(long targetBytes, int targetEntries) {
+        List<Integer> live = new ArrayList<>(entryCount);
+        for (int slot = 0; slot < CAPACITY; slot++) {
+            if (index.getInt(slotOffset(slot) + 24) > 0) {
+                live.add(slot);
+            }
+        }
+        live.sort(Comparator.comparingLong(slot -> index.getLong(slotOffset(slot) + 16)));
+
+        List<Path> evicted = new ArrayList<>();
+        for (int slot : live) {
+            if (usedBytes <= targetBytes && entryCount <= targetEntries) break;
+            byte[] hash = new byte[16];
+            index.get(slotOffset(slot), hash, 0, 16);
+            evicted.add(entryPath(hash));
+            removeSlot(slot);
+        }
+        LOGGER.debug("Disk audio cache evicted {} entries", evicted.size());
+        compactIfNeeded();
+        return evicted;
+    }
+
+    /**
+     * Rehashes live entries once tombstones start to lengthen probe chains.
+     */
+    private void compactIfNeeded() {
+        if (tombstones < CAPACITY / 4) {
+            return;
+        }
+        List<byte[]> slots = new ArrayList<>(entryCount);
+        for (int slot = 0; slot < CAPACITY; slot++) {
+            int offset = slotOffset(slot);
+            if (index.getInt(offset + 24) > 0) {
+                byte[] raw = new byte[SLOT_BYTES];
+                index.get(offset, raw, 0, SLOT_BYTES);
+                slots.add(raw);
+            }
+        }
+        for (int i = HEADER_BYTES; i < index.capacity(); i++) {
+            index.put(i, (byte) 0);
+        }
+        tombstones = 0;
+        for (byte[] raw : slots) {
+            index.put(slotOffset(insertSlot(raw)), raw, 0, SLOT_BYTES);
+        }
+    }
+
+    private int findSlot(byte[] hash) {
+        int slot = startSlot(hash);
+        for (int probes = 0; probes < CAPACITY; probes++) {
+            int offset = slotOffset(slot);
+            int size = index.getInt(offset + 24);
+            if (size == SIZE_EMPTY) {
+                return -1;
+            }
+            if (size > 0 && hashEquals(offset, hash)) {
+                return slot;
+            }
+            slot = (slot + 1) % CAPACITY;
+        }
+        return -1;
+    }
+
+    private int insertSlot(byte[] hash) {
+        int slot = startSlot(hash);
+        while (index.getInt(slotOffset(slot) + 24) > 0) {
+            slot = (slot + 1) % CAPACITY;
+        }
+        if (index.getInt(slotOffset(slot) + 24) == SIZE_DELETED) {
+            tombstones--;
+        }
+        return slot;
+    }
+
+    private void removeSlot(int slot) {
+        int offset = slotOffset(slot);
+        usedBytes -= index.getInt(offset + 24);
+        entryCount--;
+        tombstones++;
+        // Tombstone keeps later entries of the same probe chain reachable
+        index.putInt(offset + 24, SIZE_DELETED);
+    }
+
+    private boolean hashEquals(int offset, byte[] hash) {
+        for (int i = 0; i < 16; i++) {
+            if (index.get(offset + i) != hash[i]) return false;
+        }
+        return true;
+    }
+
+    @Nullable
+    private short[] readEntry(byte[] hash) {
+        try {
+            byte[] data = Files.readAllBytes(entryPath(hash));
+            ByteBuffer buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            if (data.length < FILE_HEADER_BYTES || buf.getInt() != FILE_MAGIC) {
+                return null;
+            }
+            buf.getInt(); // reserved
+            int count = buf.getInt();
+            if (count != (data.length - FILE_HEADER_BYTES) / Short.BYTES) {
+                return null;
+            }
+            short[] samples = new short[count];
+            buf.asShortBuffer().get(samples);
+            return samples;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeEntry(byte[] hash, short[] samples) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(FILE_HEADER_BYTES + samples.length * Short.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(FILE_MAGIC).putInt(0).putInt(samples.length);
+        buf.asShortBuffer().put(samples);
+
+        Path target = entryPath(hash);
+        Files.createDirectories(target.getParent());
+        // Write under a temporary name so a crash never leaves a truncated entry behind; unique, as
+        // two threads may store the same phrase at once
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, buf.array());
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Path entryPath(byte[] hash) {
+        String hex = HexFormat.of().formatHex(hash, 0, 16);
+        return dir.resolve(hex.substring(0, 2)).resolve(hex + ".pcm");
+    }
+
+    private static int startSlot(byte[] hash) {
+        int h = (hash[0] & 0xFF) | (hash[1] & 0xFF) << 8 | (hash[2] & 0xFF) << 16 | (hash[3] & 0x7F) << 24;
+        return h % CAPACITY;
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    private static byte[] hashKey(AudioCache.Key key, String modelFingerprint) {
+        String identity = modelFingerprint + "|" + key.model() + "|" + key.speakerId() + "|" + key.speed()
+                + "|" + key.robotEffect() + "|" + key.text();
+        return ModelFingerprint.sha256(identity.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,29 @@
+package org.mamoru.omnichat.client.tts;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The per-sample work of {@link AudioUtils}: the robot effect and the conversion to int16, done in
+ * a single pass over a chunk.
+ */
+interface DspKernel {
+    /** Samples per sample-and-hold block of the robot effect. */
+    int HOLD = 4;
+
+    /** Samples processed per step, 1 for the scalar kernel. */
+    default int lanes() {
+        return 1;
+    }
+
+    /**
+     * Applies the robot effect in place if {@code oscillator} is given, then writes the samples,
+     * scaled by {@code volume} and clamped, to {@code dest16} as int16 or to {@code dest32} as
+     * float, whichever is given.
+     * {@code oscillator[oscillatorIndex]} is the ring modulator value for the chunk's first sample;
+     * the table repeats every {@code period} samples and has at least {@link AudioUtils#OSCILLATOR_PADDING}
+     * entries past the period.
+     */
+    void render(float[] samples, int offset, int length,
+                @Nullable float[] oscillator, int oscillatorIndex, int period,
+                float volume, @Nullable short[] dest16, @Nullable float[] dest32, int destOffset);
+}
@@ -5,118 +5,210 @@ import com.google.gson.reflect.TypeToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.lang.reflect.Type;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class GladosG2P {
     private static final Logger LOGGER = LoggerFactory.getLogger("OmniChat");
-    private static final Pattern PUNCT_PATTERN = Pattern.compile("([!'(),.\\-.:;?])");
+    // Punctuation is split off words and passes through as its own phoneme
+    private static final String PUNCTUATION = "!'(),-.:;?";
 
-    private final Map<String, String> dictionary;
+    // Phoneme ids of each dictionary word, each phoneme already followed by the "_" separator
+    private final CompiledDictionary dictionary;
     private final Map<String, List<Integer>> phonemeIdMap;
+    private final int[] separator;
+    private final int[] begin;
+    private final int[] end;
+    private final int[] space;
+    private final int[][] punctuation = new int[128][];
+    // Ids of every single-character phoneme, indexed by the character, for spelling out unknown words
+    private final int[][] letters;
+    private final StringBuilder word = new StringBuilder();
+
+    /**
+     * Growable phoneme id sequence, reused between calls to avoid allocating per message.
+     */
+    public static final class PhonemeIds {
+        private long[] data = new long[256];
+        private int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(long id) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = id;
+        }
+
+        public long[] array() {
+            return data;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
 
     public GladosG2P(Path modelDir) throws IOException {
-        this.dictionary = loadDictionary(modelDir.resolve("dictionary.txt"));
         this.phonemeIdMap = loadPhonemeIdMap(modelDir.resolve("config.json"));
+        this.separator = ids("_");
+        this.begin = concat(ids("^"), separator);
+        this.end = ids("$");
+        this.space = phonemeIdMap.containsKey(" ") ? concat(ids(" "), separator) : new int[0];
+        for (int i = 0; i < PUNCTUATION.length(); i++) {
+            String p = PUNCTUATION.substring(i, i + 1);
+            punctuation[p.charAt(0)] = phonemeIdMap.containsKey(p) ? concat(ids(p), separator) : new int[0];
+        }
+        this.letters = letterTable();
+        this.dictionary = CompiledDictionary.load(modelDir.resolve("dictionary.txt"), modelDir.resolve("config.json"),
+                p -> phonemeIdMap.containsKey(p) ? concat(ids(p), separator) : null);
         LOGGER.info("GladosG2P loaded: {} dictionary entries, {} phoneme symbols",
                 dictionary.size(), phonemeIdMap.size());
     }
 
     public long[] textToPhonemeIds(String text) {
-        // Separate punctuation with spaces (matching Python: re.sub("([!'(),-.:;?])", r' \1 ', text))
-        text = PUNCT_PATTERN.matcher(text).replaceAll(" $1 ");
-
-        List<String> phonemes = new ArrayList<>();
-        String[] words = text.split("\\s+");
-
-        for (String word : words) {
-            if (word.isEmpty()) continue;
+        PhonemeIds ids = new PhonemeIds();
+        textToPhonemeIds(text, ids);
+        return ids.toArray();
+    }
 
-            // Punctuation passes through directly
-            if (word.length() == 1 && PUNCT_PATTERN.matcher(word).matches()) {
-                phonemes.add(word);
+    /**
+     * Converts text to the model's input ids: {@code ^ _ (phoneme _)* $} with a 0 between every
+     * two ids. Words are separated by the space phoneme and looked up in the dictionary, falling
+     * back to their individual letters. The result replaces the contents of {@code out}.
+     */
+    public synchronized void textToPhonemeIds(String text, PhonemeIds out) {
+        out.clear();
+        emit(out, begin);
+
+        // Whether anything was spoken yet; words after the first get a leading space
+        boolean started = false;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (isPunctuation(c)) {
+                emit(out, punctuation[c]);
+                started = true;
+                i++;
                 continue;
             }
-
-            String lower = word.toLowerCase();
-            if (!phonemes.isEmpty()) {
-                phonemes.add(" ");
+            if (isWhitespace(c)) {
+                i++;
+                continue;
             }
 
-            if (dictionary.containsKey(lower)) {
-                String[] phons = dictionary.get(lower).split("\\s+");
-                for (String p : phons) {
-                    if (!p.isEmpty()) phonemes.add(p);
+            word.setLength(0);
+            while (i < length && !isPunctuation(text.charAt(i)) && !isWhitespace(text.charAt(i))) {
+                word.append(Character.toLowerCase(text.charAt(i)));
+                i++;
+            }
+            if (started) {
+                emit(out, space);
+            }
+            int entry = dictionary.find(word);
+            if (entry >= 0) {
+                // A dictionary word counts as spoken even if none of its phonemes are known
+                started = true;
+                int count = dictionary.idCount(entry);
+                for (int id = 0; id < count; id++) {
+                    emit(out, dictionary.id(entry, id));
                 }
             } else {
-                // Fallback: pass individual characters as phonemes
-                for (char c : lower.toCharArray()) {
-                    String cs = String.valueOf(c);
-                    if (phonemeIdMap.containsKey(cs)) {
-                        phonemes.add(cs);
-                    }
-                }
+                started |= spellOut(word, out);
+            }
+        }
+
+        emit(out, end);
+    }
+
+    /**
+     * Fallback for unknown words: letters that are phonemes themselves are read one by one.
+     * Returns whether any letter was emitted.
+     */
+    private boolean spellOut(CharSequence lower, PhonemeIds out) {
+        boolean spoken = false;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            int[] letter = c < letters.length ? letters[c] : null;
+            if (letter != null) {
+                emit(out, letter);
+                spoken = true;
             }
         }
+        return spoken;
+    }
 
-        // Build phoneme ID sequence: ^ _ (phoneme _)* $
-        List<Integer> ids = new ArrayList<>();
-        addIds(ids, "^");
-        addIds(ids, "_");
-        for (String p : phonemes) {
-            if (phonemeIdMap.containsKey(p)) {
-                addIds(ids, p);
-                addIds(ids, "_");
+    private int[][] letterTable() {
+        int size = 0;
+        for (String phoneme : phonemeIdMap.keySet()) {
+            if (phoneme.length() == 1) {
+                size = Math.max(size, phoneme.charAt(0) + 1);
             }
         }
-        addIds(ids, "$");
+        int[][] table = new int[size][];
+        for (String phoneme : phonemeIdMap.keySet()) {
+            if (phoneme.length() == 1) {
+                table[phoneme.charAt(0)] = concat(ids(phoneme), separator);
+            }
+        }
+        return table;
+    }
 
-        // Intersperse with 0 (blank/padding) between every element
-        List<Integer> interspersed = new ArrayList<>(ids.size() * 2 + 1);
-        for (int i = 0; i < ids.size(); i++) {
-            if (i > 0) interspersed.add(0);
-            interspersed.add(ids.get(i));
+    private static void emit(PhonemeIds out, int[] ids) {
+        for (int id : ids) {
+            emit(out, id);
         }
+    }
 
-        long[] result = new long[interspersed.size()];
-        for (int i = 0; i < interspersed.size(); i++) {
-            result[i] = interspersed.get(i);
+    private static void emit(PhonemeIds out, int id) {
+        // Intersperse with 0 (blank/padding) between every element
+        if (out.size() > 0) {
+            out.add(0);
         }
-        return result;
+        out.add(id);
+    }
+
+    private static boolean isPunctuation(char c) {
+        return c < 128 && PUNCTUATION.indexOf(c) >= 0;
+    }
+
+    // Same set as the regex \s the model's reference implementation splits on
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 
-    private void addIds(List<Integer> ids, String phoneme) {
+    private int[] ids(String phoneme) {
         List<Integer> mapped = phonemeIdMap.get(phoneme);
-        if (mapped != null) {
-            ids.addAll(mapped);
+        if (mapped == null) {
+            return new int[0];
         }
+        int[] result = new int[mapped.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = mapped.get(i);
+        }
+        return result;
     }
 
-    private static Map<String, String> loadDictionary(Path path) throws IOException {
-        Map<String, String> dict = new HashMap<>();
-        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
-                if (line.isEmpty()) continue;
-                int spaceIdx = line.indexOf(' ');
-                if (spaceIdx < 0) continue;
-                String word = line.substring(0, spaceIdx);
-                String phonemes = line.substring(spaceIdx + 1).trim();
-                dict.put(word, phonemes);
-            }
-        }
-        return dict;
+    private static int[] concat(int[] a, int[] b) {
+        int[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
     }
 
     @SuppressWarnings("unchecked")
@@ -6,19 +6,42 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 public class GladosTtsEngine implements ITtsEngine {
     private static final Logger LOGGER = LoggerFactory.getLogger("OmniChat");
     private static final int SAMPLE_RATE = 22050;
+    private static final int MAX_BATCH_SIZE = 4;
+    // Decoder output for padded frames is not exactly zero
+    private static final float PADDING_THRESHOLD = 0.003f;
+    // Padding is trimmed in steps of 10 ms that stay below the threshold throughout
+    private static final int PADDING_WINDOW = SAMPLE_RATE / 100;
+    private static final int TAIL_SAMPLES = SAMPLE_RATE / 20;
+
+    private static final float NOISE_SCALE = 0.667f;
+    private static final float NOISE_SCALE_W = 0.8f;
+    private static final long[] SCALES_SHAPE = { 3 };
+    private static final float[] EMPTY = new float[0];
 
     private final OrtEnvironment env;
     private final OrtSession session;
     private final GladosG2P g2p;
 
+    // Reused by every call; the pool hands an instance to one thread at a time
+    private LongBuffer inputBuffer = allocateLongs(256);
+    private LongBuffer lengthsBuffer = allocateLongs(MAX_BATCH_SIZE);
+    private final FloatBuffer scalesBuffer = ByteBuffer.allocateDirect(3 * Float.BYTES)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    private final GladosG2P.PhonemeIds phonemeIds = new GladosG2P.PhonemeIds();
+
     private GladosTtsEngine(OrtEnvironment env, OrtSession session, GladosG2P g2p) {
         this.env = env;
         this.session = session;
@@ -26,19 +49,20 @@ public class GladosTtsEngine implements ITtsEngine {
     }
 
     public static GladosTtsEngine create(OmnichatConfig config) {
-        return create(config.getResolvedModelDir());
+        return create(config.getResolvedModelDir(), config.getSynthesisThreads());
     }
 
-    public static GladosTtsEngine create(Path modelDir) {
+    /**
+     * @param concurrentSessions how many sessions of any model may run inference at the same time
+     */
+    public static GladosTtsEngine create(Path modelDir, int concurrentSessions) {
         Path modelFile = findOnnxModel(modelDir);
 
         try {
             GladosG2P g2p = new GladosG2P(modelDir);
 
             OrtEnvironment env = OrtEnvironment.getEnvironment();
-            OrtSession.SessionOptions opts = new OrtSession.SessionOptions();
-            opts.setIntraOpNumThreads(2);
-            OrtSession session = env.createSession(modelFile.toString(), opts);
+            OrtSession session = OrtSessionProfile.create(env, modelFile, concurrentSessions);
 
             LOGGER.info("GLaDOS TTS engine initialized (model={}, sampleRate={})",
                     modelFile.getFileName(), SAMPLE_RATE);
@@ -49,41 +73,186 @@ public class GladosTtsEngine implements ITtsEngine {
     }
 
     @Override
-    public float[] generate(String text, int speakerId, float speed) {
+    public synchronized float[] generate(String text, int speakerId, float speed) {
         if (text == null || text.isBlank()) {
             return new float[0];
         }
+        return synthesize(text, speed);
+    }
+
+    @Override
+    public synchronized boolean generateStreaming(String text, int speakerId, float speed, AudioSink sink) {
+        if (text == null || text.isBlank()) {
+            return true;
+        }
+        // Run inference phrase by phrase so the first clause can play while the rest is generated
+        for (String phrase : PhraseSplitter.split(text)) {
+            float[] audio = synthesize(phrase, speed);
+            if (audio.length > 0 && !sink.accept(audio, 0, audio.length)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pads the phoneme sequences to the longest one and runs them through a single
+     * {@code session.run}; {@code input_lengths} masks the padding.
+     */
+    @Override
+    public synchronized List<float[]> generateBatch(List<String> texts, int speakerId, float speed) {
+        float[][] results = new float[texts.size()][];
+        long[][] phonemeIds = new long[texts.size()][];
+        int count = 0;
+        int maxLength = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i);
+            phonemeIds[i] = text == null || text.isBlank() ? new long[0] : g2p.textToPhonemeIds(text);
+            results[i] = new float[0];
+            if (phonemeIds[i].length > 0) {
+                count++;
+                maxLength = Math.max(maxLength, phonemeIds[i].length);
+            }
+        }
+        if (count == 0) {
+            return Arrays.asList(results);
+        }
+
+        LongBuffer input = inputBuffer(count * maxLength);
+        LongBuffer lengths = lengthsBuffer(count);
+        int[] resultIndex = new int[count];
+        int row = 0;
+        for (int i = 0; i < phonemeIds.length; i++) {
+            if (phonemeIds[i].length == 0) continue;
+            input.put(phonemeIds[i]);
+            for (int pad = phonemeIds[i].length; pad < maxLength; pad++) {
+                input.put(0L);
+            }
+            lengths.put(phonemeIds[i].length);
+            resultIndex[row++] = i;
+        }
 
         try {
-            long[] phonemeIds = g2p.textToPhonemeIds(text);
-            if (phonemeIds.length == 0) {
-                return new float[0];
+            // Output shape: [batch, 1, 1, samples of the longest item]
+            float[] audio = run(input.flip(), lengths.flip(), new long[] { count, maxLength }, speed);
+            int perItem = audio.length / count;
+            for (int i = 0; i < count; i++) {
+                results[resultIndex[i]] = trimPadding(audio, i * perItem, perItem,
+                        phonemeIds[resultIndex[i]].length, maxLength);
             }
+        } catch (OrtException e) {
+            LOGGER.error("GLaDOS TTS batch inference failed", e);
+        }
+        return Arrays.asList(results);
+    }
 
-            long[][] inputData = new long[][] { phonemeIds };
-            long[] inputLengths = new long[] { phonemeIds.length };
-            float[] scales = new float[] { 0.667f, 1.0f / speed, 0.8f };
+    @Override
+    public int getMaxBatchSize() {
+        return MAX_BATCH_SIZE;
+    }
 
-            try (OnnxTensor inputTensor = OnnxTensor.createTensor(env, inputData);
-                 OnnxTensor lengthsTensor = OnnxTensor.createTensor(env, inputLengths);
-                 OnnxTensor scalesTensor = OnnxTensor.createTensor(env, scales)) {
+    /**
+     * Padded phonemes get no duration, so a shorter item's audio is followed by near-silence up
+     * to the length of the longest item, which is returned whole. The model doesn't output the
+     * real lengths, so a shorter item is cut where its audio falls silent, but never before its
+     * share of the longest item by {@code input_lengths}, so a quiet ending is not clipped. A short
+     * natural tail is kept. Each item is copied out of the shared output, as callers get one array
+     * per text.
+     */
+    private static float[] trimPadding(float[] samples, int offset, int length, int phonemes, int maxPhonemes) {
+        if (phonemes >= maxPhonemes) {
+            return Arrays.copyOfRange(samples, offset, offset + length);
+        }
+        int floor = (int) ((long) length * phonemes / maxPhonemes);
+        int end = length;
+        while (end - PADDING_WINDOW >= floor && isSilent(samples, offset + end - PADDING_WINDOW, PADDING_WINDOW)) {
+            end -= PADDING_WINDOW;
+        }
+        end = Math.min(length, end + TAIL_SAMPLES);
+        return Arrays.copyOfRange(samples, offset, offset + end);
+    }
 
-                Map<String, OnnxTensor> inputs = Map.of(
-                        "input", inputTensor,
-                        "input_lengths", lengthsTensor,
-                        "scales", scalesTensor
-                );
+    private static boolean isSilent(float[] samples, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (Math.abs(samples[i]) >= PADDING_THRESHOLD) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-                try (OrtSession.Result result = session.run(inputs)) {
-                    // Output shape: [1, 1, 1, samples] — extract the 1D audio array
-                    float[][][][] output = (float[][][][]) result.get(0).getValue();
-                    return output[0][0][0];
-                }
+    /**
+     * Synthesizes one phrase. The result is the array the output was copied into, handed on
+     * without copying it again.
+     */
+    private float[] synthesize(String text, float speed) {
+        try {
+            g2p.textToPhonemeIds(text, phonemeIds);
+            int count = phonemeIds.size();
+            if (count == 0) {
+                return EMPTY;
             }
+            LongBuffer input = inputBuffer(count).put(phonemeIds.array(), 0, count);
+            LongBuffer lengths = lengthsBuffer(1).put(count);
+            // Output shape: [1, 1, 1, samples]
+            return run(input.flip(), lengths.flip(), new long[] { 1, count }, speed);
         } catch (OrtException e) {
             LOGGER.error("GLaDOS TTS inference failed", e);
-            return new float[0];
+            return EMPTY;
+        }
+    }
+
+    /**
+     * Runs the session on the filled input buffers and returns the audio. The input tensors wrap
+     * the direct buffers without copying them.
+     */
+    private float[] run(LongBuffer input, LongBuffer lengths, long[] inputShape, float speed) throws OrtException {
+        scalesBuffer.clear();
+        scalesBuffer.put(NOISE_SCALE).put(1.0f / speed).put(NOISE_SCALE_W).flip();
+
+        try (OnnxTensor inputTensor = OnnxTensor.createTensor(env, input, inputShape);
+             OnnxTensor lengthsTensor = OnnxTensor.createTensor(env, lengths, new long[] { inputShape[0] });
+             OnnxTensor scalesTensor = OnnxTensor.createTensor(env, scalesBuffer, SCALES_SHAPE)) {
+
+            Map<String, OnnxTensor> inputs = Map.of(
+                    "input", inputTensor,
+                    "input_lengths", lengthsTensor,
+                    "scales", scalesTensor
+            );
+
+            try (OrtSession.Result result = session.run(inputs)) {
+                // ORT allocates the output itself and its length is only known after the run, so it
+                // can't be written into a buffer of ours. getFloatBuffer, like getByteBuffer, copies
+                // it into a new heap buffer: one output-sized allocation per inference remains.
+                // That copy's backing array is used as the result rather than copied once more.
+                FloatBuffer audio = ((OnnxTensor) result.get(0)).getFloatBuffer();
+                if (audio.hasArray() && audio.arrayOffset() == 0 && audio.position() == 0
+                        && audio.array().length == audio.remaining()) {
+                    return audio.array();
+                }
+                float[] samples = new float[audio.remaining()];
+                audio.get(samples);
+                return samples;
+            }
+        }
+    }
+
+    private LongBuffer inputBuffer(int size) {
+        if (inputBuffer.capacity() < size) {
+            inputBuffer = allocateLongs(Math.max(size, inputBuffer.capacity() * 2));
+        }
+        return inputBuffer.clear().limit(size);
+    }
+
+    private LongBuffer lengthsBuffer(int size) {
+        if (lengthsBuffer.capacity() < size) {
+            lengthsBuffer = allocateLongs(size);
         }
+        return lengthsBuffer.clear().limit(size);
+    }
+
+    private static LongBuffer allocateLongs(int size) {
+        return ByteBuffer.allocateDirect(size * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
     }
 
     @Override
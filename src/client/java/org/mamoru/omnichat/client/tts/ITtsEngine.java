@@ -1,7 +1,44 @@
 package org.mamoru.omnichat.client.tts;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public interface ITtsEngine {
     float[] generate(String text, int speakerId, float speed);
+
+    /**
+     * Generates audio sentence by sentence, handing each chunk to the sink as soon as it is ready.
+     * Returns false if the sink cancelled generation.
+     */
+    default boolean generateStreaming(String text, int speakerId, float speed, AudioSink sink) {
+        float[] samples = generate(text, speakerId, speed);
+        if (samples == null || samples.length == 0) {
+            return true;
+        }
+        return sink.accept(samples, 0, samples.length);
+    }
+
+    /**
+     * Generates several texts, returning one sample array per text in the same order. Engines
+     * that can batch run them through a single inference call.
+     */
+    default List<float[]> generateBatch(List<String> texts, int speakerId, float speed) {
+        List<float[]> results = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            float[] samples = generate(text, speakerId, speed);
+            results.add(samples != null ? samples : new float[0]);
+        }
+        return results;
+    }
+
+    /**
+     * Largest number of texts worth passing to {@link #generateBatch} at once; 1 if the engine
+     * gains nothing from batching.
+     */
+    default int getMaxBatchSize() {
+        return 1;
+    }
+
     int getSampleRate();
     void release();
 }
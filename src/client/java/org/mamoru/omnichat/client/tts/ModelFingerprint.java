@@ -0,0 +1,92 @@
+package org.mamoru.omnichat.client.tts;
+
+import org.jetbrains.annotations.Nullable;
+import org.mamoru.omnichat.client.config.OmnichatConfig;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Identifies a specific version of a model's .onnx file by name, size and modification time, so
+ * anything derived from the model can be invalidated when the file is replaced.
+ */
+public final class ModelFingerprint {
+    private static final Map<String, String> CACHE = new ConcurrentHashMap<>();
+
+    private ModelFingerprint() {
+    }
+
+    /**
+     * Fingerprint of the named model in the models directory, or null if it isn't installed.
+     */
+    @Nullable
+    public static String of(String modelName) {
+        String cached = CACHE.get(modelName);
+        if (cached != null) {
+            return cached;
+        }
+        Path onnx = findOnnxFile(OmnichatConfig.getModelsDir().resolve(modelName));
+        if (onnx == null) {
+            return null;
+        }
+        String fingerprint = ofFile(onnx);
+        if (fingerprint != null) {
+            CACHE.put(modelName, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    @Nullable
+    public static String ofFile(Path file) {
+        try {
+            String identity = file.getFileName() + "|" + Files.size(file) + "|"
+                    + Files.getLastModifiedTime(file).toMillis();
+            return sha256Hex(identity).substring(0, 16);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static void invalidate(String modelName) {
+        CACHE.remove(modelName);
+    }
+
+    public static void invalidateAll() {
+        CACHE.clear();
+    }
+
+    static String sha256Hex(String value) {
+        return HexFormat.of().formatHex(sha256(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @Nullable
+    private static Path findOnnxFile(Path modelDir) {
+        if (!Files.isDirectory(modelDir)) {
+            return null;
+        }
+        try (Stream<Path> stream = Files.list(modelDir)) {
+            return stream
+                    .filter(p -> p.getFileName().toString().endsWith(".onnx"))
+                    .findFirst()
+                    .orElse(null);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
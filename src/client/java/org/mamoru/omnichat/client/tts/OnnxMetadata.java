@@ -0,0 +1,319 @@
+package org.mamoru.omnichat.client.tts;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The {@code metadata_props} of an ONNX model, read without loading the model. Only the top-level
+ * fields of the {@code ModelProto} message are walked; the graph and its weights are skipped by
+ * seeking past them. The result is cached in a sidecar file next to the model, keyed by the
+ * model's size and modification time.
+ */
+public final class OnnxMetadata {
+    private static final Logger LOGGER = LoggerFactory.getLogger("OmniChat");
+
+    // Must not end in .onnx, or the model scanner would take it for a model
+    private static final String SIDECAR_SUFFIX = ".meta";
+    private static final int SIDECAR_MAGIC = 0x4F434D44; // "OCMD"
+    private static final int METADATA_PROPS_FIELD = 14;
+    private static final int KEY_FIELD = 1;
+    private static final int VALUE_FIELD = 2;
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+    private static final int WIRE_FIXED32 = 5;
+    // Metadata entries are short strings; anything bigger is skipped
+    private static final int MAX_ENTRY_BYTES = 1 << 20;
+
+    private final Map<String, String> props;
+
+    private OnnxMetadata(Map<String, String> props) {
+        this.props = Collections.unmodifiableMap(props);
+    }
+
+    /**
+     * Metadata of the first .onnx file in the model directory, or null if there is none or it
+     * can't be read.
+     */
+    @Nullable
+    public static OnnxMetadata forModel(Path modelDir) {
+        try (Stream<Path> files = Files.list(modelDir)) {
+            Path onnx = files.filter(p -> p.getFileName().toString().endsWith(".onnx")).findFirst().orElse(null);
+            return onnx != null ? read(onnx) : null;
+        } catch (IOException e) {
+            LOGGER.debug("Failed to read metadata of '{}': {}", modelDir.getFileName(), e.getMessage());
+            return null;
+        }
+    }
+
+    public static OnnxMetadata read(Path modelFile) throws IOException {
+        long size = Files.size(modelFile);
+        long mtime = Files.getLastModifiedTime(modelFile).toMillis();
+        Path sidecar = modelFile.resolveSibling(modelFile.getFileName() + SIDECAR_SUFFIX);
+
+        Map<String, String> cached = readSidecar(sidecar, size, mtime);
+        if (cached != null) {
+            return new OnnxMetadata(cached);
+        }
+
+        Map<String, String> props = parse(modelFile);
+        try {
+            writeSidecar(sidecar, size, mtime, props);
+        } catch (IOException e) {
+            LOGGER.debug("Failed to write metadata cache for '{}': {}", modelFile.getFileName(), e.getMessage());
+        }
+        return new OnnxMetadata(props);
+    }
+
+    @Nullable
+    public String get(String key) {
+        return props.get(key);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = props.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public boolean has(String key) {
+        return props.containsKey(key);
+    }
+
+    public int getSampleRate() {
+        return getInt("sample_rate", -1);
+    }
+
+    public int getNumSpeakers() {
+        return getInt("n_speakers", -1);
+    }
+
+    @Nullable
+    public String getLanguage() {
+        return props.get("language");
+    }
+
+    public Map<String, String> asMap() {
+        return props;
+    }
+
+    private static Map<String, String> parse(Path modelFile) throws IOException {
+        Map<String, String> props = new LinkedHashMap<>();
+        try (FileChannel channel = FileChannel.open(modelFile, StandardOpenOption.READ)) {
+            Reader reader = new Reader(channel);
+            while (!reader.atEnd()) {
+                long tag = reader.varint();
+                int field = (int) (tag >>> 3);
+                int wireType = (int) (tag & 7);
+                if (field == METADATA_PROPS_FIELD && wireType == WIRE_LENGTH_DELIMITED) {
+                    long length = reader.varint();
+                    if (length > MAX_ENTRY_BYTES) {
+                        reader.skip(length);
+                        continue;
+                    }
+                    readEntry(ByteBuffer.wrap(reader.bytes((int) length)), props);
+                } else {
+                    reader.skipField(wireType);
+                }
+            }
+        }
+        return props;
+    }
+
+    /**
+     * Parses a {@code StringStringEntryProto}.
+     */
+    private static void readEntry(ByteBuffer entry, Map<String, String> props) throws IOException {
+        String key = null;
+        String value = "";
+        while (entry.hasRemaining()) {
+            long tag = varint(entry);
+            int field = (int) (tag >>> 3);
+            int wireType = (int) (tag & 7);
+            if (wireType != WIRE_LENGTH_DELIMITED) {
+                throw new IOException("Unexpected wire type " + wireType + " in metadata entry");
+            }
+            int length = (int) varint(entry);
+            if (length < 0 || length > entry.remaining()) {
+                throw new IOException("Truncated metadata entry");
+            }
+            String text = new String(entry.array(), entry.position(), length, StandardCharsets.UTF_8);
+            entry.position(entry.position() + length);
+            if (field == KEY_FIELD) {
+                key = text;
+            } else if (field == VALUE_FIELD) {
+                value = text;
+            }
+        }
+        if (key != null) {
+            props.put(key, value);
+        }
+    }
+
+    private static long varint(ByteBuffer buf) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buf.hasRemaining()) {
+                throw new EOFException("Truncated varint");
+            }
+            byte b = buf.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Sequential protobuf reader over a file that seeks past fields it doesn't need.
+     */
+    private static final class Reader {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+        // File position of the start of the buffer's contents
+        private long bufferStart;
+
+        Reader(FileChannel channel) {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        boolean atEnd() throws IOException {
+            return !buffer.hasRemaining() && !fill();
+        }
+
+        long varint() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (!buffer.hasRemaining() && !fill()) {
+                    throw new EOFException("Truncated varint");
+                }
+                byte b = buffer.get();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        byte[] bytes(int length) throws IOException {
+            byte[] out = new byte[length];
+            int read = 0;
+            while (read < length) {
+                if (!buffer.hasRemaining() && !fill()) {
+                    throw new EOFException("Truncated field");
+                }
+                int n = Math.min(length - read, buffer.remaining());
+                buffer.get(out, read, n);
+                read += n;
+            }
+            return out;
+        }
+
+        void skipField(int wireType) throws IOException {
+            switch (wireType) {
+                case WIRE_VARINT -> varint();
+                case WIRE_FIXED64 -> skip(8);
+                case WIRE_LENGTH_DELIMITED -> skip(varint());
+                case WIRE_FIXED32 -> skip(4);
+                default -> throw new IOException("Unsupported wire type " + wireType);
+            }
+        }
+
+        void skip(long length) throws IOException {
+            if (length <= buffer.remaining()) {
+                buffer.position(buffer.position() + (int) length);
+                return;
+            }
+            long target = bufferStart + buffer.position() + length;
+            if (target > channel.size()) {
+                throw new EOFException("Field extends past the end of the file");
+            }
+            bufferStart = target;
+            buffer.limit(0);
+        }
+
+        private boolean fill() throws IOException {
+            bufferStart += buffer.limit();
+            buffer.clear();
+            int read = channel.read(buffer, bufferStart);
+            buffer.flip();
+            return read > 0;
+        }
+    }
+
+    @Nullable
+    private static Map<String, String> readSidecar(Path sidecar, long size, long mtime) {
+        if (!Files.exists(sidecar)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(sidecar))) {
+            if (in.readInt() != SIDECAR_MAGIC || in.readLong() != size || in.readLong() != mtime) {
+                return null;
+            }
+            int count = in.readInt();
+            Map<String, String> props = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                props.put(readString(in), readString(in));
+            }
+            return props;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeSidecar(Path sidecar, long size, long mtime, Map<String, String> props) throws IOException {
+        Path temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp-" + ProcessHandle.current().pid()
+                + "-" + Thread.currentThread().threadId());
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+            out.writeInt(SIDECAR_MAGIC);
+            out.writeLong(size);
+            out.writeLong(mtime);
+            out.writeInt(props.size());
+            for (Map.Entry<String, String> entry : props.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+        }
+        Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_ENTRY_BYTES) {
+            throw new IOException("Corrupt metadata cache");
+        }
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
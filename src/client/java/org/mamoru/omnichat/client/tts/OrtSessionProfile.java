@@ -0,0 +1,125 @@
+package org.mamoru.omnichat.client.tts;
+
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Session options for running a VITS graph inside the game client, and a cache of the optimized
+ * graph next to the model file. The first session saves the graph after optimization; later
+ * sessions load it with optimization turned off and skip that work.
+ */
+final class OrtSessionProfile {
+    private static final Logger LOGGER = LoggerFactory.getLogger("OmniChat");
+    private static final int MAX_INTRA_OP_THREADS = 4;
+    // Must not end in .onnx, or the model scanner would take it for a model
+    private static final String OPTIMIZED_SUFFIX = ".opt-";
+
+    private OrtSessionProfile() {
+    }
+
+    /**
+     * Creates a session for the model. {@code concurrentSessions} is how many sessions may run at
+     * the same time; the cores are shared between them.
+     */
+    static OrtSession create(OrtEnvironment env, Path modelFile, int concurrentSessions) throws OrtException {
+        int intraOpThreads = intraOpThreads(Runtime.getRuntime().availableProcessors(), concurrentSessions);
+        String fingerprint = ModelFingerprint.ofFile(modelFile);
+        if (fingerprint == null) {
+            try (OrtSession.SessionOptions opts = options(intraOpThreads, OrtSession.SessionOptions.OptLevel.EXTENDED_OPT)) {
+                return env.createSession(modelFile.toString(), opts);
+            }
+        }
+
+        Path optimized = modelFile.resolveSibling(modelFile.getFileName() + OPTIMIZED_SUFFIX + fingerprint);
+        if (Files.exists(optimized)) {
+            try (OrtSession.SessionOptions opts = options(intraOpThreads, OrtSession.SessionOptions.OptLevel.NO_OPT)) {
+                OrtSession session = env.createSession(optimized.toString(), opts);
+                LOGGER.debug("Loaded pre-optimized graph '{}' ({} threads)", optimized.getFileName(), intraOpThreads);
+                return session;
+            } catch (OrtException e) {
+                // Written by a different runtime version or damaged
+                LOGGER.warn("Discarding optimized graph '{}': {}", optimized.getFileName(), e.getMessage());
+                deleteQuietly(optimized);
+            }
+        }
+
+        // Pool instances may be created concurrently; each saves under its own name first
+        Path temp = modelFile.resolveSibling(optimized.getFileName() + ".tmp-" + ProcessHandle.current().pid()
+                + "-" + Thread.currentThread().threadId());
+        OrtSession session;
+        try (OrtSession.SessionOptions opts = options(intraOpThreads, OrtSession.SessionOptions.OptLevel.EXTENDED_OPT)) {
+            opts.setOptimizedModelFilePath(temp.toString());
+            session = env.createSession(modelFile.toString(), opts);
+        }
+        try {
+            if (Files.exists(temp)) {
+                Files.move(temp, optimized, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                deleteStale(modelFile, optimized);
+                LOGGER.info("Saved optimized graph for '{}'", modelFile.getFileName());
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Failed to save optimized graph for '{}': {}", modelFile.getFileName(), e.getMessage());
+            deleteQuietly(temp);
+        }
+        return session;
+    }
+
+    /**
+     * Cores per concurrent session, leaving one core to the game itself.
+     */
+    static int intraOpThreads(int cores, int concurrentSessions) {
+        int available = Math.max(1, cores - 1);
+        return Math.max(1, Math.min(MAX_INTRA_OP_THREADS, available / Math.max(1, concurrentSessions)));
+    }
+
+    private static OrtSession.SessionOptions options(int intraOpThreads, OrtSession.SessionOptions.OptLevel optLevel)
+            throws OrtException {
+        OrtSession.SessionOptions opts = new OrtSession.SessionOptions();
+        opts.setOptimizationLevel(optLevel);
+        opts.setIntraOpNumThreads(intraOpThreads);
+        // The VITS graph is a chain of ops, parallel execution only adds scheduling overhead
+        opts.setExecutionMode(OrtSession.SessionOptions.ExecutionMode.SEQUENTIAL);
+        opts.setInterOpNumThreads(1);
+        // Input length changes with every message, so recorded memory patterns never get reused
+        opts.setMemoryPatternOptimization(false);
+        opts.setCPUArenaAllocator(true);
+        // Idle worker threads must not spin on cores the game needs
+        opts.addConfigEntry("session.intra_op.allow_spinning", "0");
+        return opts;
+    }
+
+    /**
+     * Removes optimized graphs of earlier versions of the model file.
+     */
+    private static void deleteStale(Path modelFile, Path current) {
+        String prefix = modelFile.getFileName() + OPTIMIZED_SUFFIX;
+        // Keeps temporary files of the current version too, another instance may still be writing one
+        String currentName = current.getFileName().toString();
+        try (Stream<Path> files = Files.list(modelFile.getParent())) {
+            List<Path> stale = files
+                    .filter(p -> p.getFileName().toString().startsWith(prefix)
+                            && !p.getFileName().toString().startsWith(currentName))
+                    .toList();
+            stale.forEach(OrtSessionProfile::deleteQuietly);
+        } catch (IOException e) {
+            LOGGER.debug("Failed to clean up optimized graphs: {}", e.getMessage());
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.mamoru.omnichat.client.tts;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits chat text into sentences and long clauses so they can be synthesized one at a time.
+ */
+final class PhraseSplitter {
+    // Commas only split once the clause is long enough to be worth a separate inference call
+    private static final int MIN_CLAUSE_CHARS = 40;
+
+    private PhraseSplitter() {
+    }
+
+    static List<String> split(String text) {
+        List<String> phrases = new ArrayList<>();
+        int start = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            boolean sentenceEnd = c == '.' || c == '!' || c == '?' || c == ';' || c == '…';
+            boolean clauseEnd = (c == ',' || c == ':') && i - start >= MIN_CLAUSE_CHARS;
+            if (!sentenceEnd && !clauseEnd) {
+                continue;
+            }
+            // Keep runs like "?!" or "..." together with their phrase
+            while (i + 1 < length && isTerminator(text.charAt(i + 1))) {
+                i++;
+            }
+            addPhrase(phrases, text, start, i + 1);
+            start = i + 1;
+        }
+        addPhrase(phrases, text, start, length);
+        return phrases;
+    }
+
+    private static boolean isTerminator(char c) {
+        return c == '.' || c == '!' || c == '?' || c == '…';
+    }
+
+    private static void addPhrase(List<String> phrases, String text, int start, int end) {
+        String phrase = text.substring(start, end).strip();
+        if (phrase.isEmpty()) {
+            return;
+        }
+        // A lone punctuation run carries no speech, attach it to the previous phrase
+        boolean hasLetters = phrase.codePoints().anyMatch(Character::isLetterOrDigit);
+        if (!hasLetters) {
+            if (!phrases.isEmpty()) {
+                int last = phrases.size() - 1;
+                phrases.set(last, phrases.get(last) + phrase);
+            }
+            return;
+        }
+        phrases.add(phrase);
+    }
+}
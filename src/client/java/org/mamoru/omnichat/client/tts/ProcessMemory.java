@@ -0,0 +1,37 @@
+package org.mamoru.omnichat.client.tts;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Best-effort view of the process's memory footprint, including native allocations made by
+ * ONNX Runtime and sherpa-onnx that the Java heap statistics don't see.
+ */
+final class ProcessMemory {
+    private static final Path STATM = Path.of("/proc/self/statm");
+    private static final long PAGE_SIZE = 4096;
+
+    private ProcessMemory() {
+    }
+
+    /**
+     * Resident set size on Linux, committed (private) memory elsewhere; -1 if unknown.
+     */
+    static long currentBytes() {
+        if (Files.isReadable(STATM)) {
+            try {
+                String[] fields = Files.readString(STATM).trim().split(" ");
+                return Long.parseLong(fields[1]) * PAGE_SIZE;
+            } catch (IOException | RuntimeException e) {
+                // fall through to the MXBean
+            }
+        }
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            long committed = os.getCommittedVirtualMemorySize();
+            return committed > 0 ? committed : -1;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,71 @@
+package org.mamoru.omnichat.client.tts;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Plain Java kernel, used when the Vector API isn't available and for the tails of chunks that
+ * don't fill a whole vector.
+ */
+final class ScalarDspKernel implements DspKernel {
+    static final ScalarDspKernel INSTANCE = new ScalarDspKernel();
+
+    private ScalarDspKernel() {
+    }
+
+    @Override
+    public void render(float[] samples, int offset, int length,
+                       @Nullable float[] oscillator, int oscillatorIndex, int period,
+                       float volume, @Nullable short[] dest16, @Nullable float[] dest32, int destOffset) {
+        if (oscillator == null) {
+            if (dest16 != null) {
+                for (int i = 0; i < length; i++) {
+                    dest16[destOffset + i] = toInt16(samples[offset + i] * volume);
+                }
+            } else if (dest32 != null) {
+                for (int i = 0; i < length; i++) {
+                    dest32[destOffset + i] = clamp(samples[offset + i] * volume);
+                }
+            }
+            return;
+        }
+
+        int phase = oscillatorIndex;
+        for (int i = 0; i < length; i += HOLD) {
+            // Sample-and-hold keeps only the first sample of each block, so only that one
+            // needs to be modulated and quantized
+            float held = quantize(samples[offset + i] * oscillator[phase]);
+            int blockEnd = Math.min(length, i + HOLD);
+            for (int j = i; j < blockEnd; j++) {
+                samples[offset + j] = held;
+            }
+            if (dest16 != null) {
+                short pcm = toInt16(held * volume);
+                for (int j = i; j < blockEnd; j++) {
+                    dest16[destOffset + j] = pcm;
+                }
+            } else if (dest32 != null) {
+                float pcm = clamp(held * volume);
+                for (int j = i; j < blockEnd; j++) {
+                    dest32[destOffset + j] = pcm;
+                }
+            }
+            phase = (phase + HOLD) % period;
+        }
+    }
+
+    /**
+     * Bitcrusher: rounds to steps of 1/8. Written as a floor so the vector kernel can match it
+     * exactly.
+     */
+    static float quantize(float sample) {
+        return (float) Math.floor(sample * 8.0f + 0.5f) * 0.125f;
+    }
+
+    static short toInt16(float sample) {
+        return (short) (clamp(sample) * Short.MAX_VALUE);
+    }
+
+    static float clamp(float sample) {
+        return Math.max(-1.0f, Math.min(1.0f, sample));
+    }
+}
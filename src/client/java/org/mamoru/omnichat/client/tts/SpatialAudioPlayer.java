@@ -1,145 +1,779 @@
 package org.mamoru.omnichat.client.tts;
 
 import net.minecraft.client.MinecraftClient;
-import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.client.network.AbstractClientPlayerEntity;
 import net.minecraft.util.math.Vec3d;
+import org.jetbrains.annotations.Nullable;
 import org.lwjgl.openal.AL10;
+import org.lwjgl.openal.ALC10;
+import org.mamoru.omnichat.client.OmnichatClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Plays speech through OpenAL on a dedicated audio thread. Every AL call is made on that thread,
+ * fed by a lock-free command queue; the game thread only publishes where the listener and the
+ * players are each tick. The game's sound engine makes its context current for the whole
+ * process, so AL calls work from any thread. The thread sleeps while nothing is playing, and is
+ * stopped while the sound engine reloads and when the client shuts down.
+ */
 public class SpatialAudioPlayer {
     private static final Logger LOGGER = LoggerFactory.getLogger("OmniChat");
     private static final float MAX_DISTANCE = 40.0f;
     private static final float REFERENCE_DISTANCE = 4.0f;
+    // Idle chunk buffers kept for reuse
+    private static final long MAX_POOLED_BYTES = 8L << 20;
+    // Sources follow their sender only once it moved this far since the last update
+    private static final double POSITION_THRESHOLD_SQ = 0.25 * 0.25;
+    // Idle OpenAL buffer names kept for reuse
+    private static final int MAX_FREE_BUFFERS = 64;
+    // While anything plays, the audio thread also wakes up this often to recycle played buffers
+    // and free finished sources
+    private static final long HOUSEKEEPING_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long STOP_TIMEOUT_MS = 2000;
+    // Ends the audio thread once the commands before it have run
+    private static final Runnable STOP = () -> {};
+    // Chaining key for speech without a sender
+    private static final Object SYSTEM_SENDER = new Object();
 
+    private static final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    private static final DirectBufferPool bufferPool = new DirectBufferPool(MAX_POOLED_BYTES);
+    // Each sender's most recent stream, which the next one plays after
+    private static final Map<Object, AudioStream> lastStreams = new ConcurrentHashMap<>();
+    // Latest positions from the game thread
+    private static volatile Positions positions = Positions.EMPTY;
+    // AL_FORMAT_MONO_FLOAT32 if the device supports AL_EXT_float32, otherwise 0
+    private static volatile int floatFormat;
+    private static volatile Thread audioThread;
+    // Set while the sound engine is down; commands wait for it to come back, chunks are dropped
+    private static volatile boolean suspended;
+    // Whether any source is playing or waiting to, as of the audio thread's last round
+    private static volatile boolean playing;
+    private static volatile int waitingCount;
+
+    // Owned by the audio thread
     private static final List<ActiveSource> activeSources = new ArrayList<>();
+    // Streams waiting for their sender's previous stream to finish
+    private static final List<AudioStream> waitingStreams = new ArrayList<>();
+    private static final ArrayDeque<Integer> freeSources = new ArrayDeque<>();
+    private static final ArrayDeque<Integer> freeBuffers = new ArrayDeque<>();
+    private static int generatedSources;
+    private static boolean sourceLimitReached;
+    private static Positions appliedPositions = Positions.EMPTY;
+    // Context the pooled names belong to
+    private static long context;
+    // Written by the audio thread only
+    private static volatile long culled;
+    private static volatile long cutOff;
+    private static volatile long stolen;
+    private static volatile long dropped;
 
-    private record ActiveSource(int sourceId, int bufferId, UUID senderUuid) {}
+    /**
+     * {@code culled}: streams never uploaded because the sender was out of earshot by then.
+     * {@code cutOff}: voices stopped mid-playback for the same reason. {@code stolen} and
+     * {@code dropped}: voices stopped or refused at the voice limit.
+     */
+    public record Stats(long culled, long cutOff, long stolen, long dropped) {}
 
-    public static void playSpatial(byte[] pcm, int sampleRate, UUID senderUuid) {
-        MinecraftClient.getInstance().execute(() -> {
-            try {
-                cleanup();
-
-                MinecraftClient client = MinecraftClient.getInstance();
-                Vec3d pos = Vec3d.ZERO;
-                if (client.world != null) {
-                    PlayerEntity sender = client.world.getPlayerByUuid(senderUuid);
-                    if (sender != null) {
-                        pos = sender.getEntityPos();
-                    }
+    /**
+     * Where the listener and every loaded player were at the end of a tick. {@code listener} is
+     * null while there is no world or player.
+     */
+    private record Positions(@Nullable Vec3d listener, Map<UUID, Vec3d> players) {
+        static final Positions EMPTY = new Positions(null, Map.of());
+    }
+
+    private static final class ActiveSource {
+        final int sourceId;
+        @Nullable final UUID senderUuid;
+        @Nullable AudioStream stream;
+        final long startedAt = System.nanoTime();
+        // Queued buffer ids in playback order
+        final ArrayDeque<Integer> buffers = new ArrayDeque<>();
+        boolean finished;
+        volatile boolean closed;
+        // Position last passed to OpenAL and distance to the listener
+        Vec3d position;
+        double distance;
+
+        ActiveSource(int sourceId, @Nullable UUID senderUuid, Vec3d position, double distance) {
+            this.sourceId = sourceId;
+            this.senderUuid = senderUuid;
+            this.position = position;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * A source fed chunk by chunk through {@code alSourceQueueBuffers}. Playback starts with the
+     * first chunk; played buffers are recycled while later chunks are still being synthesized.
+     * Chunks are written into pooled direct buffers and uploaded from there, in float32 when the
+     * device supports it, so no int16 conversion or intermediate copies are needed.
+     * <p>
+     * A sender's streams play one after another: while the previous one is still playing, or was
+     * not finished yet, chunks are held back and the source is only started after it ended and
+     * the gap passed. The next message can be synthesized while the previous one plays.
+     */
+    public static final class AudioStream {
+        private final int sampleRate;
+        @Nullable private final UUID senderUuid;
+        private final Object senderKey;
+        // Fixed per stream, all buffers queued on a source must have the same format
+        private final int format;
+        private final long gapNanos;
+        // Written on the audio thread only
+        private volatile ActiveSource source;
+        private volatile boolean closed;
+        // Audio thread only: cleared once it ended, chunks held until then
+        @Nullable private AudioStream previous;
+        private final ArrayDeque<ByteBuffer> held = new ArrayDeque<>();
+        private boolean finished;
+        private boolean waiting;
+        // Set on the audio thread once the stream played out, was cut off or turned out empty
+        private volatile boolean ended;
+        private volatile long endedAt;
+
+        private AudioStream(int sampleRate, @Nullable UUID senderUuid, long gapMs) {
+            this.sampleRate = sampleRate;
+            this.senderUuid = senderUuid;
+            this.senderKey = senderUuid != null ? senderUuid : SYSTEM_SENDER;
+            this.gapNanos = TimeUnit.MILLISECONDS.toNanos(gapMs);
+            int floatFormat = SpatialAudioPlayer.floatFormat;
+            this.format = floatFormat != 0 ? floatFormat : AL10.AL_FORMAT_MONO16;
+            this.previous = lastStreams.put(senderKey, this);
+        }
+
+        /**
+         * Whether chunks are float32 rather than int16 samples.
+         */
+        public boolean isFloat() {
+            return format != AL10.AL_FORMAT_MONO16;
+        }
+
+        /**
+         * Returns a buffer from the pool with room for {@code samples} samples in this stream's
+         * format. Fill it from the start and pass it to {@link #write}.
+         */
+        public ByteBuffer allocate(int samples) {
+            return bufferPool.acquire(samples * (isFloat() ? Float.BYTES : Short.BYTES));
+        }
+
+        /**
+         * Queues a chunk from {@link #allocate}, filled up to its position. The buffer goes back
+         * to the pool once OpenAL has copied it, or right away if the stream is closed.
+         */
+        public void write(ByteBuffer pcm) {
+            pcm.flip();
+            if (suspended) {
+                closed = true;
+            }
+            if (!pcm.hasRemaining() || closed) {
+                bufferPool.release(pcm);
+                return;
+            }
+            submit(() -> {
+                if (source == null) {
+                    held.add(pcm);
+                    advance(System.nanoTime());
+                } else {
+                    upload(pcm);
                 }
+            });
+        }
 
-                int buffer = createBuffer(pcm, sampleRate);
-                int source = AL10.alGenSources();
+        /**
+         * Marks the end of the stream; the source is freed once its queue has played out.
+         */
+        public void finish() {
+            submit(() -> {
+                finished = true;
+                if (source != null) {
+                    source.finished = true;
+                } else {
+                    advance(System.nanoTime());
+                }
+            });
+        }
 
-                AL10.alSourcei(source, AL10.AL_BUFFER, buffer);
-                AL10.alSourcef(source, AL10.AL_REFERENCE_DISTANCE, REFERENCE_DISTANCE);
-                AL10.alSourcef(source, AL10.AL_MAX_DISTANCE, MAX_DISTANCE);
-                AL10.alSourcef(source, AL10.AL_ROLLOFF_FACTOR, 1.0f);
-                AL10.alSourcei(source, AL10.AL_SOURCE_RELATIVE, AL10.AL_FALSE);
-                AL10.alSource3f(source, AL10.AL_POSITION,
-                        (float) pos.x, (float) pos.y, (float) pos.z);
+        /**
+         * Starts playback of the held chunks once the previous stream ended and the gap passed,
+         * or ends the stream if it has nothing to play. Keeps it on the waiting list otherwise.
+         * Audio thread only.
+         */
+        private void advance(long now) {
+            if (ended || source != null) {
+                return;
+            }
+            if (!closed && !isAudible(senderUuid)) {
+                closed = true;
+                culled++;
+            }
+            if (closed) {
+                releaseHeld();
+                finished = true;
+            }
+            long previousEnd = now - gapNanos;
+            if (previous != null) {
+                if (!previous.ended) {
+                    setWaiting(true);
+                    return;
+                }
+                previousEnd = previous.endedAt;
+            }
+            if (held.isEmpty()) {
+                if (finished) {
+                    // Nothing to play, the next stream only waits for the previous one
+                    end(previous != null ? previousEnd : now);
+                    setWaiting(false);
+                }
+                return;
+            }
+            if (now - previousEnd < gapNanos) {
+                setWaiting(true);
+                return;
+            }
+            previous = null;
+            setWaiting(false);
 
-                AL10.alSourcePlay(source);
-                activeSources.add(new ActiveSource(source, buffer, senderUuid));
-            } catch (Exception e) {
-                LOGGER.error("Failed to play spatial audio", e);
+            ActiveSource created = createSource(senderUuid);
+            if (created == null) {
+                // Dropped at the voice limit, the producer stops on isClosed()
+                closed = true;
+                releaseHeld();
+                end(now);
+                return;
             }
-        });
-    }
+            created.stream = this;
+            created.finished = finished;
+            source = created;
+            activeSources.add(created);
+            while (!held.isEmpty()) {
+                upload(held.poll());
+            }
+        }
 
-    public static void playMono(byte[] pcm, int sampleRate) {
-        MinecraftClient.getInstance().execute(() -> {
+        private void upload(ByteBuffer pcm) {
             try {
-                cleanup();
-                int buffer = createBuffer(pcm, sampleRate);
-                int source = AL10.alGenSources();
-
-                AL10.alSourcei(source, AL10.AL_BUFFER, buffer);
-                AL10.alSourcei(source, AL10.AL_SOURCE_RELATIVE, AL10.AL_TRUE);
-                AL10.alSource3f(source, AL10.AL_POSITION, 0.0f, 0.0f, 0.0f);
+                if (source.closed) {
+                    closed = true;
+                    return;
+                }
+                // Drop played buffers first, otherwise a restart after an underrun replays them
+                reclaimProcessed(source);
+                int buffer = createBuffer(pcm, format, sampleRate);
+                AL10.alSourceQueueBuffers(source.sourceId, buffer);
+                source.buffers.add(buffer);
 
-                AL10.alSourcePlay(source);
-                activeSources.add(new ActiveSource(source, buffer, null));
+                if (AL10.alGetSourcei(source.sourceId, AL10.AL_SOURCE_STATE) != AL10.AL_PLAYING) {
+                    AL10.alSourcePlay(source.sourceId);
+                }
             } catch (Exception e) {
-                LOGGER.error("Failed to play mono audio", e);
+                LOGGER.error("Failed to queue streamed audio", e);
+            } finally {
+                bufferPool.release(pcm);
+            }
+        }
+
+        private void setWaiting(boolean waiting) {
+            if (this.waiting != waiting) {
+                this.waiting = waiting;
+                if (waiting) {
+                    waitingStreams.add(this);
+                } else {
+                    waitingStreams.remove(this);
+                }
+            }
+        }
+
+        private void releaseHeld() {
+            while (!held.isEmpty()) {
+                bufferPool.release(held.poll());
+            }
+        }
+
+        /**
+         * Audio thread only.
+         */
+        private void end(long at) {
+            if (ended) {
+                return;
             }
-        });
+            previous = null;
+            endedAt = at;
+            ended = true;
+            lastStreams.remove(senderKey, this);
+        }
+
+        /**
+         * Stops the stream for good without playing anything more. Audio thread only.
+         */
+        private void abandon() {
+            closed = true;
+            releaseHeld();
+            setWaiting(false);
+            end(System.nanoTime());
+        }
+
+        /**
+         * Returns true once playback was cut off, or the sender walked out of range, left or
+         * changed dimension since the last tick, so the producer can stop synthesizing.
+         */
+        public boolean isClosed() {
+            if (!closed && ((source != null && source.closed) || !isAudible(senderUuid))) {
+                closed = true;
+            }
+            return closed;
+        }
     }
 
+    /**
+     * Opens a stream that plays after the sender's previous one, {@code gapMs} after it ended.
+     */
+    public static AudioStream openStream(int sampleRate, @Nullable UUID senderUuid, long gapMs) {
+        return new AudioStream(sampleRate, senderUuid, gapMs);
+    }
+
+    /**
+     * Streams with audio waiting for their sender's previous message to finish.
+     */
+    public static int getWaitingCount() {
+        return waitingCount;
+    }
+
+    /**
+     * Whether speech from the sender could be heard as of the last tick. A sender that isn't in
+     * the world is out of range, has left, or is in another dimension, and without a world or
+     * player nobody is in range. Speech without a sender is always audible.
+     */
+    public static boolean isAudible(@Nullable UUID senderUuid) {
+        if (senderUuid == null) {
+            return true;
+        }
+        Positions current = positions;
+        Vec3d pos = current.players().get(senderUuid);
+        return pos != null && current.listener() != null && current.listener().distanceTo(pos) <= MAX_DISTANCE;
+    }
+
+    public static Stats getStats() {
+        return new Stats(culled, cutOff, stolen, dropped);
+    }
+
+    /**
+     * Publishes the positions of the listener and the players for the audio thread. Runs on the
+     * game thread at the end of each tick; the AL work happens on the audio thread. Skipped while
+     * nothing is playing or waiting to be spoken.
+     */
     public static void tick() {
         MinecraftClient client = MinecraftClient.getInstance();
-        if (client.world == null) return;
+        if (client.world == null || client.player == null) {
+            positions = Positions.EMPTY;
+            return;
+        }
+        TtsPlaybackWorker worker = OmnichatClient.getWorker();
+        if (!playing && (worker == null || worker.isIdle())) {
+            return;
+        }
+        publish(client);
+    }
+
+    /**
+     * Publishes positions right away, for a message about to be queued. They may be stale if
+     * nothing was playing. Runs on the game thread.
+     */
+    public static void refresh() {
+        MinecraftClient client = MinecraftClient.getInstance();
+        if (client.world != null && client.player != null) {
+            publish(client);
+        }
+    }
+
+    private static void publish(MinecraftClient client) {
+        List<AbstractClientPlayerEntity> players = client.world.getPlayers();
+        Map<UUID, Vec3d> playerPositions = new HashMap<>(players.size() * 2);
+        for (AbstractClientPlayerEntity player : players) {
+            playerPositions.put(player.getUuid(), player.getEntityPos());
+        }
+        positions = new Positions(client.player.getEntityPos(), playerPositions);
+        Thread thread = audioThread;
+        // Only playing sources follow positions, new ones read them when created
+        if (thread != null && playing) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Stops all playback and deletes the pooled sources and buffers.
+     */
+    public static void cleanupAll() {
+        if (audioThread == null) {
+            return;
+        }
+        submit(SpatialAudioPlayer::releaseAll);
+    }
+
+    /**
+     * Stops all playback, deletes the pooled sources and buffers and ends the audio thread, waiting
+     * for it. Called before the game's sound engine shuts down or reloads, while its context is
+     * still alive. Until {@link #resume}, new chunks are dropped.
+     */
+    public static void suspend() {
+        Thread thread;
+        synchronized (SpatialAudioPlayer.class) {
+            suspended = true;
+            thread = audioThread;
+            if (thread == null) {
+                return;
+            }
+            commands.offer(SpatialAudioPlayer::releaseAll);
+            commands.offer(STOP);
+            audioThread = null;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Lets audio play again once the sound engine is back up.
+     */
+    public static void resume() {
+        suspended = false;
+        if (!commands.isEmpty()) {
+            submit(() -> {});
+        }
+    }
+
+    private static void releaseAll() {
+        for (ActiveSource active : activeSources) {
+            releaseSource(active);
+        }
+        activeSources.clear();
+        abandonWaiting();
+        while (!freeSources.isEmpty()) {
+            AL10.alDeleteSources(freeSources.pop());
+        }
+        while (!freeBuffers.isEmpty()) {
+            AL10.alDeleteBuffers(freeBuffers.pop());
+        }
+        generatedSources = 0;
+        sourceLimitReached = false;
+    }
+
+    private static void submit(Runnable command) {
+        commands.offer(command);
+        Thread thread = ensureAudioThread();
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Returns the audio thread, starting it if needed, or null while suspended.
+     */
+    @Nullable
+    private static Thread ensureAudioThread() {
+        Thread thread = audioThread;
+        if (thread != null) {
+            return thread;
+        }
+        synchronized (SpatialAudioPlayer.class) {
+            if (audioThread == null && !suspended) {
+                thread = new Thread(SpatialAudioPlayer::runAudioThread, "OmniChat-Audio");
+                thread.setDaemon(true);
+                thread.start();
+                audioThread = thread;
+            }
+            return audioThread;
+        }
+    }
+
+    private static void runAudioThread() {
+        while (true) {
+            checkContext();
+            Runnable command;
+            while ((command = commands.poll()) != null) {
+                if (command == STOP) {
+                    return;
+                }
+                try {
+                    command.run();
+                } catch (Exception e) {
+                    LOGGER.error("Audio command failed", e);
+                }
+            }
+            try {
+                update();
+            } catch (Exception e) {
+                LOGGER.error("Audio update failed", e);
+            }
+            playing = !activeSources.isEmpty() || !waitingStreams.isEmpty();
+            waitingCount = waitingStreams.size();
+            if (!commands.isEmpty()) {
+                continue;
+            }
+            if (!playing) {
+                // Nothing to recycle or move until the next command
+                LockSupport.park();
+            } else {
+                LockSupport.parkNanos(HOUSEKEEPING_INTERVAL_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Recycles played buffers, frees sources that finished, and moves or cuts off sources after
+     * new positions were published.
+     */
+    private static void update() {
+        Positions current = positions;
+        boolean moved = current != appliedPositions;
+        appliedPositions = current;
+
+        if (!waitingStreams.isEmpty()) {
+            long now = System.nanoTime();
+            for (AudioStream stream : new ArrayList<>(waitingStreams)) {
+                stream.advance(now);
+            }
+        }
 
         Iterator<ActiveSource> it = activeSources.iterator();
         while (it.hasNext()) {
             ActiveSource active = it.next();
-            int state = AL10.alGetSourcei(active.sourceId(), AL10.AL_SOURCE_STATE);
-            if (state == AL10.AL_STOPPED) {
-                AL10.alDeleteSources(active.sourceId());
-                AL10.alDeleteBuffers(active.bufferId());
+            reclaimProcessed(active);
+            int state = AL10.alGetSourcei(active.sourceId, AL10.AL_SOURCE_STATE);
+            if (state == AL10.AL_STOPPED && active.finished) {
+                releaseSource(active);
                 it.remove();
                 continue;
             }
 
-            if (active.senderUuid() != null && client.player != null) {
-                PlayerEntity player = client.world.getPlayerByUuid(active.senderUuid());
-                if (player != null) {
-                    Vec3d pos = player.getEntityPos();
-                    double distance = client.player.getEntityPos().distanceTo(pos);
-                    if (distance > MAX_DISTANCE) {
-                        AL10.alSourceStop(active.sourceId());
-                        AL10.alDeleteSources(active.sourceId());
-                        AL10.alDeleteBuffers(active.bufferId());
-                        it.remove();
-                        continue;
-                    }
-                    AL10.alSource3f(active.sourceId(), AL10.AL_POSITION,
-                            (float) pos.x, (float) pos.y, (float) pos.z);
-                }
+            if (!moved || active.senderUuid == null || current.listener() == null) {
+                continue;
             }
-        }
-    }
-
-    public static void cleanupAll() {
-        MinecraftClient.getInstance().execute(() -> {
-            for (ActiveSource active : activeSources) {
-                AL10.alSourceStop(active.sourceId());
-                AL10.alDeleteSources(active.sourceId());
-                AL10.alDeleteBuffers(active.bufferId());
+            Vec3d pos = current.players().get(active.senderUuid);
+            active.distance = pos != null ? current.listener().distanceTo(pos) : Double.POSITIVE_INFINITY;
+            if (active.distance > MAX_DISTANCE) {
+                // Out of range, left the game or changed dimension
+                releaseSource(active);
+                it.remove();
+                cutOff++;
+                continue;
             }
-            activeSources.clear();
-        });
+            if (pos.squaredDistanceTo(active.position) > POSITION_THRESHOLD_SQ) {
+                AL10.alSource3f(active.sourceId, AL10.AL_POSITION,
+                        (float) pos.x, (float) pos.y, (float) pos.z);
+                active.position = pos;
+            }
+        }
     }
 
+    /**
+     * Frees sources that finished playing.
+     */
     private static void cleanup() {
         Iterator<ActiveSource> it = activeSources.iterator();
         while (it.hasNext()) {
             ActiveSource active = it.next();
-            int state = AL10.alGetSourcei(active.sourceId(), AL10.AL_SOURCE_STATE);
-            if (state == AL10.AL_STOPPED) {
-                AL10.alDeleteSources(active.sourceId());
-                AL10.alDeleteBuffers(active.bufferId());
+            int state = AL10.alGetSourcei(active.sourceId, AL10.AL_SOURCE_STATE);
+            if (state == AL10.AL_STOPPED && active.finished) {
+                releaseSource(active);
                 it.remove();
             }
         }
     }
 
-    private static int createBuffer(byte[] pcm, int sampleRate) {
-        int buffer = AL10.alGenBuffers();
-        ByteBuffer data = ByteBuffer.allocateDirect(pcm.length)
-                .order(ByteOrder.nativeOrder())
-                .put(pcm)
-                .flip();
-        AL10.alBufferData(buffer, AL10.AL_FORMAT_MONO16, data, sampleRate);
+    /**
+     * Takes a source from the pool for a new voice. Returns null if the sender can no longer be
+     * heard. At the voice limit the farthest voice is stopped, the oldest of equally far ones; if
+     * the new voice is farther than all playing ones, it is the one dropped and null is returned.
+     */
+    @Nullable
+    private static ActiveSource createSource(@Nullable UUID senderUuid) {
+        if (!isAudible(senderUuid)) {
+            culled++;
+            return null;
+        }
+        Vec3d pos = Vec3d.ZERO;
+        double distance = 0.0;
+        if (senderUuid != null) {
+            Positions current = positions;
+            Vec3d senderPos = current.players().get(senderUuid);
+            if (senderPos != null) {
+                pos = senderPos;
+                if (current.listener() != null) {
+                    distance = current.listener().distanceTo(pos);
+                }
+            }
+        }
+
+        cleanup();
+        int maxVoices = OmnichatClient.getConfig().getMaxVoices();
+        fillSourcePool(maxVoices);
+        if (activeSources.size() >= maxVoices || freeSources.isEmpty()) {
+            ActiveSource victim = pickVictim();
+            if (victim == null || victim.distance < distance) {
+                LOGGER.debug("Voice limit reached, dropping voice at {} blocks", (int) distance);
+                dropped++;
+                return null;
+            }
+            LOGGER.debug("Voice limit reached, stopping voice at {} blocks", (int) victim.distance);
+            releaseSource(victim);
+            activeSources.remove(victim);
+            stolen++;
+        }
+
+        int source = freeSources.pop();
+        ActiveSource active = new ActiveSource(source, senderUuid, pos, distance);
+        if (senderUuid == null) {
+            AL10.alSourcei(source, AL10.AL_SOURCE_RELATIVE, AL10.AL_TRUE);
+            AL10.alSource3f(source, AL10.AL_POSITION, 0.0f, 0.0f, 0.0f);
+            return active;
+        }
+
+        AL10.alSourcef(source, AL10.AL_REFERENCE_DISTANCE, REFERENCE_DISTANCE);
+        AL10.alSourcef(source, AL10.AL_MAX_DISTANCE, MAX_DISTANCE);
+        AL10.alSourcef(source, AL10.AL_ROLLOFF_FACTOR, 1.0f);
+        AL10.alSourcei(source, AL10.AL_SOURCE_RELATIVE, AL10.AL_FALSE);
+        AL10.alSource3f(source, AL10.AL_POSITION,
+                (float) pos.x, (float) pos.y, (float) pos.z);
+        return active;
+    }
+
+    @Nullable
+    private static ActiveSource pickVictim() {
+        ActiveSource victim = null;
+        for (ActiveSource active : activeSources) {
+            if (victim == null || active.distance > victim.distance
+                    || (active.distance == victim.distance && active.startedAt < victim.startedAt)) {
+                victim = active;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Generates sources up to {@code maxVoices}. The game's sound engine takes most of what the
+     * device offers, so generation stops at the first failure.
+     */
+    private static void fillSourcePool(int maxVoices) {
+        if (sourceLimitReached) {
+            return;
+        }
+        AL10.alGetError();
+        while (generatedSources < maxVoices) {
+            int source = AL10.alGenSources();
+            if (AL10.alGetError() != AL10.AL_NO_ERROR) {
+                LOGGER.warn("OpenAL ran out of sources, limiting speech to {} voices", generatedSources);
+                sourceLimitReached = true;
+                return;
+            }
+            freeSources.push(source);
+            generatedSources++;
+        }
+    }
+
+    private static void reclaimProcessed(ActiveSource active) {
+        int processed = AL10.alGetSourcei(active.sourceId, AL10.AL_BUFFERS_PROCESSED);
+        for (int i = 0; i < processed && !active.buffers.isEmpty(); i++) {
+            int buffer = AL10.alSourceUnqueueBuffers(active.sourceId);
+            active.buffers.remove(buffer);
+            recycleBuffer(buffer);
+        }
+    }
+
+    /**
+     * Stops the source and returns it and its buffers to the pools.
+     */
+    private static void releaseSource(ActiveSource active) {
+        active.closed = true;
+        if (active.stream != null) {
+            active.stream.end(System.nanoTime());
+        }
+        AL10.alSourceStop(active.sourceId);
+        // Detaches the whole queue; once stopped, every queued buffer counts as processed
+        AL10.alSourcei(active.sourceId, AL10.AL_BUFFER, 0);
+        for (int buffer : active.buffers) {
+            recycleBuffer(buffer);
+        }
+        active.buffers.clear();
+        freeSources.push(active.sourceId);
+    }
+
+    private static void abandonWaiting() {
+        for (AudioStream stream : new ArrayList<>(waitingStreams)) {
+            stream.abandon();
+        }
+        waitingStreams.clear();
+    }
+
+    private static void recycleBuffer(int buffer) {
+        if (freeBuffers.size() < MAX_FREE_BUFFERS) {
+            freeBuffers.push(buffer);
+        } else {
+            AL10.alDeleteBuffers(buffer);
+        }
+    }
+
+    private static int createBuffer(ByteBuffer pcm, int format, int sampleRate) {
+        Integer recycled = freeBuffers.poll();
+        int buffer = recycled != null ? recycled : AL10.alGenBuffers();
+        // OpenAL copies the data, so the chunk can be reused as soon as this returns
+        AL10.alBufferData(buffer, format, pcm, sampleRate);
         return buffer;
     }
+
+    /**
+     * Forgets the pooled sources and buffers if the sound engine recreated its context, which
+     * normally stops the audio thread first (see {@link #suspend}). The old names died with the
+     * old context, so they are dropped without being deleted.
+     */
+    private static void checkContext() {
+        long current = ALC10.alcGetCurrentContext();
+        if (current == context) {
+            return;
+        }
+        if (context != 0) {
+            LOGGER.info("OpenAL context changed, dropping {} pooled sources", generatedSources);
+        }
+        for (ActiveSource active : activeSources) {
+            active.closed = true;
+            if (active.stream != null) {
+                active.stream.abandon();
+            }
+        }
+        activeSources.clear();
+        abandonWaiting();
+        freeSources.clear();
+        freeBuffers.clear();
+        generatedSources = 0;
+        sourceLimitReached = false;
+        context = current;
+        checkFloatFormat();
+    }
+
+    /**
+     * Looks up float32 support for the current context. Streams opened before that use int16.
+     */
+    private static void checkFloatFormat() {
+        if (AL10.alIsExtensionPresent("AL_EXT_float32")) {
+            floatFormat = AL10.alGetEnumValue("AL_FORMAT_MONO_FLOAT32");
+        }
+        LOGGER.debug("Streaming audio as {}", floatFormat != 0 ? "float32" : "int16");
+    }
 }
@@ -0,0 +1,113 @@
+package org.mamoru.omnichat.client.tts;
+
+/**
+ * Adapts delivery to the backlog so speech stays close to real time when chat outpaces it. The
+ * backlog is estimated from the queue depth, the average message length and the measured
+ * real-time factor of synthesis. Pressure rises with it right away and decays once it clears.
+ * Under pressure, speech is sped up by up to {@code maxSpeedUp}, pauses between a sender's
+ * messages shrink, and very long messages are shortened.
+ */
+final class SpeechRateController {
+    // Seconds of queued speech at which pressure starts, and at which it is full
+    private static final double LOW_BACKLOG_SECONDS = 5.0;
+    private static final double HIGH_BACKLOG_SECONDS = 30.0;
+    private static final double PRESSURE_HALF_LIFE_MS = 5000.0;
+    private static final double SMOOTHING = 0.2;
+    private static final long NORMAL_GAP_MS = 300;
+    // Messages are shortened past half pressure, to this many characters at full pressure
+    private static final int SHORTEN_START_CHARS = 300;
+    private static final int SHORTEN_MIN_CHARS = 100;
+
+    private final boolean enabled;
+    private final float maxSpeedUp;
+    // Synthesis time over audio duration, and seconds of audio per message at 1.0x
+    private double realTimeFactor = 0.5;
+    private double secondsPerMessage = 2.0;
+    private double pressure;
+    private long updatedAtMs = System.currentTimeMillis();
+
+    SpeechRateController(boolean enabled, float maxSpeedUp) {
+        this.enabled = enabled;
+        this.maxSpeedUp = maxSpeedUp;
+    }
+
+    synchronized void recordSynthesis(long nanos, long samples, int sampleRate) {
+        if (samples <= 0 || sampleRate <= 0) {
+            return;
+        }
+        double seconds = samples / (double) sampleRate;
+        realTimeFactor += SMOOTHING * (nanos / 1e9 / seconds - realTimeFactor);
+        secondsPerMessage += SMOOTHING * (seconds - secondsPerMessage);
+    }
+
+    /**
+     * Re-evaluates the pressure for {@code pending} queued messages.
+     */
+    synchronized void update(int pending) {
+        long now = System.currentTimeMillis();
+        double backlog = pending * secondsPerMessage * Math.max(1.0, realTimeFactor);
+        double target = Math.clamp((backlog - LOW_BACKLOG_SECONDS) / (HIGH_BACKLOG_SECONDS - LOW_BACKLOG_SECONDS),
+                0.0, 1.0);
+        double decayed = pressure * Math.pow(0.5, (now - updatedAtMs) / PRESSURE_HALF_LIFE_MS);
+        pressure = Math.max(target, decayed);
+        updatedAtMs = now;
+    }
+
+    synchronized double getPressure() {
+        return enabled ? pressure : 0.0;
+    }
+
+    synchronized double getRealTimeFactor() {
+        return realTimeFactor;
+    }
+
+    /**
+     * Multiplier for the configured speed, in steps of 0.05 so cached audio sped up to the same
+     * step can be reused.
+     */
+    float speedFactor() {
+        double factor = 1.0 + (maxSpeedUp - 1.0) * getPressure();
+        return Math.round(factor * 20.0) / 20.0f;
+    }
+
+    /**
+     * Pause between the end of a sender's message and the start of their next one.
+     */
+    long gapMs() {
+        return Math.round(NORMAL_GAP_MS * (1.0 - getPressure()));
+    }
+
+    /**
+     * Longest message that is spoken in full.
+     */
+    int maxChars() {
+        double pressure = getPressure();
+        if (pressure <= 0.5) {
+            return Integer.MAX_VALUE;
+        }
+        double t = (pressure - 0.5) * 2.0;
+        return (int) Math.round(SHORTEN_START_CHARS + (SHORTEN_MIN_CHARS - SHORTEN_START_CHARS) * t);
+    }
+
+    /**
+     * Cuts the text to at most {@code maxChars}, preferring the end of a sentence, then a word
+     * boundary, and marks the cut with an ellipsis. The ellipsis is written as dots, which every
+     * engine pauses on.
+     */
+    static String shorten(String text, int maxChars) {
+        if (text.length() <= maxChars) {
+            return text;
+        }
+        int cut = -1;
+        for (int i = maxChars - 1; i >= maxChars / 2; i--) {
+            char c = text.charAt(i);
+            if (c == '.' || c == '!' || c == '?' || c == '…') {
+                return text.substring(0, i + 1);
+            }
+            if (cut < 0 && Character.isWhitespace(c)) {
+                cut = i;
+            }
+        }
+        return text.substring(0, cut > 0 ? cut : maxChars).stripTrailing() + "...";
+    }
+}
@@ -0,0 +1,548 @@
+package org.mamoru.omnichat.client.tts;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+
+/**
+ * Turns raw chat text into something worth speaking, before it is queued and cached. In one pass,
+ * it:
+ * <ul>
+ * <li>replaces links with a short word;</li>
+ * <li>reads numbers out;</li>
+ * <li>collapses stretched letters and syllables ("nooooo", "hahahaha") and runs of punctuation;</li>
+ * <li>drops symbols and emoji that can't be pronounced.</li>
+ * </ul>
+ * A second pass collapses a word repeated over and over, and cuts the message once its estimated
+ * phoneme count exceeds the budget. Numbers and links are read in the voice's language; if that is
+ * unknown, in Russian if the message has any Cyrillic letters and in English otherwise.
+ */
+public final class TextNormalizer {
+    // Punctuation the engines pause on; everything else that isn't a letter or digit is dropped
+    private static final String PUNCTUATION = "!\"'(),-.:;?";
+    // Punctuation written right after a word
+    private static final String CLOSING_PUNCTUATION = "!),.:;?";
+    // A letter, or a syllable of up to this many letters, is kept at most twice in a row
+    private static final int MAX_REPEAT_UNIT = 3;
+    private static final int MAX_REPEATS = 2;
+    // Longer digit runs are read digit by digit
+    private static final int MAX_NUMBER_DIGITS = 12;
+    private static final String CUT_MARK = "...";
+
+    private static final String[] EN_ONES = {"zero", "one", "two", "three", "four", "five", "six", "seven",
+            "eight", "nine", "ten", "eleven", "twelve", "thirteen", "fourteen", "fifteen", "sixteen",
+            "seventeen", "eighteen", "nineteen"};
+    private static final String[] EN_TENS = {"", "", "twenty", "thirty", "forty", "fifty", "sixty", "seventy",
+            "eighty", "ninety"};
+    private static final String[] EN_SCALES = {"", "thousand", "million", "billion"};
+
+    private static final String[] RU_ONES = {"ноль", "один", "два", "три", "четыре", "пять", "шесть", "семь",
+            "восемь", "девять", "десять", "одиннадцать", "двенадцать", "тринадцать", "четырнадцать",
+            "пятнадцать", "шестнадцать", "семнадцать", "восемнадцать", "девятнадцать"};
+    private static final String[] RU_TENS = {"", "", "двадцать", "тридцать", "сорок", "пятьдесят", "шестьдесят",
+            "семьдесят", "восемьдесят", "девяносто"};
+    private static final String[] RU_HUNDREDS = {"", "сто", "двести", "триста", "четыреста", "пятьсот",
+            "шестьсот", "семьсот", "восемьсот", "девятьсот"};
+    // Forms for one, two to four, and five or more
+    private static final String[][] RU_SCALES = {{"", "", ""}, {"тысяча", "тысячи", "тысяч"},
+            {"миллион", "миллиона", "миллионов"}, {"миллиард", "миллиарда", "миллиардов"}};
+    private static final String[] RU_PERCENT = {"процент", "процента", "процентов"};
+
+    private enum Language {
+        ENGLISH("link", "minus", "point", "percent", "and"),
+        RUSSIAN("ссылка", "минус", "точка", "процентов", "и");
+
+        final String link;
+        final String minus;
+        final String point;
+        final String percent;
+        final String and;
+
+        Language(String link, String minus, String point, String percent, String and) {
+            this.link = link;
+            this.minus = minus;
+            this.point = point;
+            this.percent = percent;
+            this.and = and;
+        }
+
+        /**
+         * The language for a code such as "ru", "en-US" or "russian", or null if it is not
+         * supported.
+         */
+        @Nullable
+        static Language of(@Nullable String code) {
+            if (code == null) {
+                return null;
+            }
+            String lower = code.trim().toLowerCase(Locale.ROOT);
+            if (lower.startsWith("ru")) {
+                return RUSSIAN;
+            }
+            if (lower.startsWith("en")) {
+                return ENGLISH;
+            }
+            return null;
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private static final class Scratch {
+        final StringBuilder text = new StringBuilder(256);
+        final StringBuilder capped = new StringBuilder(256);
+    }
+
+    private TextNormalizer() {
+    }
+
+    /**
+     * Normalizes the text for a voice speaking {@code language}, a code such as "ru" or "en", and
+     * cuts it at about {@code maxPhonemes} phonemes, 0 for no limit. With no or an unsupported
+     * language it is guessed from the text. Returns an empty string if nothing pronounceable is
+     * left.
+     */
+    public static String normalize(String text, @Nullable String language, int maxPhonemes) {
+        Scratch scratch = SCRATCH.get();
+        StringBuilder out = scratch.text;
+        out.setLength(0);
+        Language resolved = Language.of(language);
+        clean(text, resolved != null ? resolved : detectLanguage(text), out);
+        StringBuilder capped = scratch.capped;
+        capped.setLength(0);
+        capWords(out, maxPhonemes, capped);
+        return capped.toString();
+    }
+
+    /**
+     * Rough phoneme count: about one per letter in both languages.
+     */
+    private static int estimatePhonemes(CharSequence text, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (Character.isLetter(text.charAt(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Language detectLanguage(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '\u0400' && c <= '\u04FF') {
+                return Language.RUSSIAN;
+            }
+        }
+        return Language.ENGLISH;
+    }
+
+    private static void clean(String text, Language language, StringBuilder out) {
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            boolean tokenStart = i == 0 || Character.isWhitespace(text.charAt(i - 1));
+
+            if (tokenStart && isUrlStart(text, i)) {
+                while (i < length && !Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                appendWord(out, language.link);
+                continue;
+            }
+            if (isDigit(c)) {
+                i = appendNumber(text, i, language, out);
+                continue;
+            }
+            if (c == '-' && i + 1 < length && isDigit(text.charAt(i + 1))
+                    && (tokenStart || text.charAt(i - 1) == '(' || text.charAt(i - 1) == ',')) {
+                appendWord(out, language.minus);
+                i++;
+                continue;
+            }
+            if (Character.isLetter(c)) {
+                i = appendLetters(text, i, out);
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                appendSpace(out);
+                i++;
+                continue;
+            }
+            if (c == '…') {
+                for (int dot = 0; dot < 3; dot++) {
+                    appendPunctuation(out, '.');
+                }
+                i++;
+                continue;
+            }
+            if (PUNCTUATION.indexOf(c) >= 0) {
+                appendPunctuation(out, c);
+                i++;
+                continue;
+            }
+            if (c == '%') {
+                appendWord(out, language == Language.RUSSIAN ? russianPercent(text, i) : language.percent);
+            } else if (c == '&') {
+                appendWord(out, language.and);
+            } else {
+                // Symbols, emoji and anything else unpronounceable only separate words
+                appendSpace(out);
+            }
+            i += Character.charCount(text.codePointAt(i));
+        }
+    }
+
+    private static boolean isUrlStart(String text, int i) {
+        return text.regionMatches(true, i, "http://", 0, 7)
+                || text.regionMatches(true, i, "https://", 0, 8)
+                || text.regionMatches(true, i, "www.", 0, 4);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Appends the letters starting at {@code start}, keeping any letter or short syllable at most
+     * {@link #MAX_REPEATS} times in a row. Returns the index after them.
+     */
+    private static int appendLetters(String text, int start, StringBuilder out) {
+        int length = text.length();
+        int end = start;
+        while (end < length && Character.isLetter(text.charAt(end))) {
+            end++;
+        }
+        if (out.length() > 0 && isWordChar(out.charAt(out.length() - 1))) {
+            // A number or inserted word directly before, as in "5x"
+            out.append(' ');
+        }
+        int i = start;
+        while (i < end) {
+            int skip = 0;
+            for (int unit = 1; unit <= MAX_REPEAT_UNIT && skip == 0; unit++) {
+                int repeats = 1;
+                while (i + (repeats + 1) * unit <= end
+                        && text.regionMatches(true, i, text, i + repeats * unit, unit)) {
+                    repeats++;
+                }
+                if (repeats > MAX_REPEATS) {
+                    out.append(text, i, i + MAX_REPEATS * unit);
+                    skip = repeats * unit;
+                }
+            }
+            if (skip > 0) {
+                i += skip;
+            } else {
+                out.append(text.charAt(i++));
+            }
+        }
+        return end;
+    }
+
+    private static void appendPunctuation(StringBuilder out, char c) {
+        int last = out.length() - 1;
+        if (last >= 0 && out.charAt(last) == ' ' && CLOSING_PUNCTUATION.indexOf(c) >= 0) {
+            // Hug the preceding word; a trailing space is added back by the next word
+            out.setLength(last--);
+        }
+        if (last >= 0 && out.charAt(last) == c) {
+            // An ellipsis survives, longer runs and repeated "!!!" do not
+            int run = 1;
+            while (run < last + 1 && out.charAt(last - run) == c) {
+                run++;
+            }
+            if (c != '.' || run >= 3) {
+                return;
+            }
+        }
+        out.append(c);
+    }
+
+    private static void appendSpace(StringBuilder out) {
+        if (out.length() > 0 && out.charAt(out.length() - 1) != ' ') {
+            out.append(' ');
+        }
+    }
+
+    private static void appendWord(StringBuilder out, String word) {
+        int last = out.length() - 1;
+        if (last >= 0 && out.charAt(last) != ' ' && out.charAt(last) != '(' && out.charAt(last) != '"') {
+            out.append(' ');
+        }
+        out.append(word);
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c);
+    }
+
+    /**
+     * Reads out the number starting at {@code start}, with a decimal part after a point, and in
+     * English with thousands separated by commas. Returns the index after it.
+     */
+    private static int appendNumber(String text, int start, Language language, StringBuilder out) {
+        int end = digitsEnd(text, start);
+        if (language == Language.ENGLISH && end - start <= 3 && text.charAt(start) != '0'
+                && isThousandsGroup(text, end)) {
+            long value = Long.parseLong(text, start, end, 10);
+            for (int groups = 0; groups < 3 && isThousandsGroup(text, end); groups++) {
+                value = value * 1000 + Long.parseLong(text, end + 1, end + 4, 10);
+                end += 4;
+            }
+            appendEnglish(value, out);
+        } else {
+            appendDigits(text, start, end, language, out);
+        }
+        if (end + 1 < text.length() && text.charAt(end) == '.' && isDigit(text.charAt(end + 1))) {
+            int fractionEnd = digitsEnd(text, end + 1);
+            appendWord(out, language.point);
+            appendDigitByDigit(text, end + 1, fractionEnd, language, out);
+            end = fractionEnd;
+        }
+        return end;
+    }
+
+    /**
+     * Whether a ",ddd" group follows at {@code i}, as in "1,000,000".
+     */
+    private static boolean isThousandsGroup(String text, int i) {
+        return i + 4 <= text.length() && text.charAt(i) == ',' && digitsEnd(text, i + 1) == i + 4;
+    }
+
+    private static int digitsEnd(String text, int start) {
+        int end = start;
+        while (end < text.length() && isDigit(text.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static void appendDigits(String text, int start, int end, Language language, StringBuilder out) {
+        boolean leadingZero = text.charAt(start) == '0' && end - start > 1;
+        if (leadingZero || end - start > MAX_NUMBER_DIGITS) {
+            appendDigitByDigit(text, start, end, language, out);
+            return;
+        }
+        long value = Long.parseLong(text, start, end, 10);
+        if (language == Language.RUSSIAN) {
+            appendRussian(value, out);
+        } else {
+            appendEnglish(value, out);
+        }
+    }
+
+    private static void appendDigitByDigit(String text, int start, int end, Language language, StringBuilder out) {
+        String[] ones = language == Language.RUSSIAN ? RU_ONES : EN_ONES;
+        for (int i = start; i < end; i++) {
+            appendWord(out, ones[text.charAt(i) - '0']);
+        }
+    }
+
+    private static void appendEnglish(long value, StringBuilder out) {
+        if (value == 0) {
+            appendWord(out, EN_ONES[0]);
+            return;
+        }
+        for (int scale = EN_SCALES.length - 1; scale >= 0; scale--) {
+            int group = (int) (value / pow1000(scale) % 1000);
+            if (group == 0) {
+                continue;
+            }
+            if (group >= 100) {
+                appendWord(out, EN_ONES[group / 100]);
+                appendWord(out, "hundred");
+                group %= 100;
+            }
+            if (group >= 20) {
+                appendWord(out, EN_TENS[group / 10]);
+                group %= 10;
+            }
+            if (group > 0) {
+                appendWord(out, EN_ONES[group]);
+            }
+            if (scale > 0) {
+                appendWord(out, EN_SCALES[scale]);
+            }
+        }
+    }
+
+    private static void appendRussian(long value, StringBuilder out) {
+        if (value == 0) {
+            appendWord(out, RU_ONES[0]);
+            return;
+        }
+        for (int scale = RU_SCALES.length - 1; scale >= 0; scale--) {
+            int group = (int) (value / pow1000(scale) % 1000);
+            if (group == 0) {
+                continue;
+            }
+            if (group >= 100) {
+                appendWord(out, RU_HUNDREDS[group / 100]);
+            }
+            int rest = group % 100;
+            if (rest >= 20) {
+                appendWord(out, RU_TENS[rest / 10]);
+                rest %= 10;
+            }
+            if (rest > 0) {
+                // Thousands are feminine: "одна тысяча", "две тысячи"
+                if (scale == 1 && rest == 1) {
+                    appendWord(out, "одна");
+                } else if (scale == 1 && rest == 2) {
+                    appendWord(out, "две");
+                } else {
+                    appendWord(out, RU_ONES[rest]);
+                }
+            }
+            if (scale > 0) {
+                appendWord(out, RU_SCALES[scale][russianForm(group)]);
+            }
+        }
+    }
+
+    /**
+     * The form of "процент" agreeing with the number written before {@code end}.
+     */
+    private static String russianPercent(String text, int end) {
+        while (end > 0 && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        int start = end;
+        while (start > 0 && isDigit(text.charAt(start - 1))) {
+            start--;
+        }
+        if (start == end) {
+            return RU_PERCENT[2];
+        }
+        if (start >= 2 && text.charAt(start - 1) == '.' && isDigit(text.charAt(start - 2))) {
+            // A fraction takes the genitive singular: "два точка пять процента"
+            return RU_PERCENT[1];
+        }
+        return RU_PERCENT[russianForm(Integer.parseInt(text, Math.max(start, end - 2), end, 10))];
+    }
+
+    private static int russianForm(int n) {
+        int lastTwo = n % 100;
+        int last = n % 10;
+        if (lastTwo >= 11 && lastTwo <= 14 || last == 0 || last >= 5) {
+            return 2;
+        }
+        return last == 1 ? 0 : 1;
+    }
+
+    private static long pow1000(int scale) {
+        long result = 1;
+        for (int i = 0; i < scale; i++) {
+            result *= 1000;
+        }
+        return result;
+    }
+
+    /**
+     * Copies the words of {@code text} to {@code out}, skipping a word that repeats the previous
+     * one more than {@link #MAX_REPEATS} times, and stopping with a cut mark once the phoneme
+     * budget is spent.
+     */
+    private static void capWords(StringBuilder text, int maxPhonemes, StringBuilder out) {
+        int length = text.length();
+        int phonemes = 0;
+        int previousStart = -1;
+        int previousEnd = -1;
+        int repeats = 0;
+        int i = 0;
+        while (i < length) {
+            while (i < length && text.charAt(i) == ' ') {
+                i++;
+            }
+            int start = i;
+            while (i < length && text.charAt(i) != ' ') {
+                i++;
+            }
+            if (start == i) {
+                break;
+            }
+            if (previousStart >= 0 && sameWord(text, previousStart, previousEnd, start, i)) {
+                if (++repeats >= MAX_REPEATS) {
+                    continue;
+                }
+            } else {
+                repeats = 0;
+            }
+            previousStart = start;
+            previousEnd = i;
+
+            int wordPhonemes = estimatePhonemes(text, start, i);
+            if (maxPhonemes > 0 && phonemes + wordPhonemes > maxPhonemes) {
+                if (phonemes == 0) {
+                    // A first word over the whole budget, such as a long run of letters, is cut inside
+                    if (!out.isEmpty()) {
+                        out.append(' ');
+                    }
+                    out.append(text, start, afterLetters(text, start, i, maxPhonemes));
+                }
+                trimTrailingPunctuation(out);
+                out.append(CUT_MARK);
+                return;
+            }
+            phonemes += wordPhonemes;
+            if (!out.isEmpty()) {
+                out.append(' ');
+            }
+            out.append(text, start, i);
+        }
+        if (phonemes == 0) {
+            // Only punctuation left, nothing to speak
+            out.setLength(0);
+        }
+    }
+
+    /**
+     * The index after the first {@code letters} letters from {@code start}.
+     */
+    private static int afterLetters(StringBuilder text, int start, int end, int letters) {
+        int i = start;
+        while (i < end && letters > 0) {
+            if (Character.isLetter(text.charAt(i++))) {
+                letters--;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Whether two words match ignoring case and trailing punctuation.
+     */
+    private static boolean sameWord(StringBuilder text, int aStart, int aEnd, int bStart, int bEnd) {
+        aEnd = lettersEnd(text, aStart, aEnd);
+        bEnd = lettersEnd(text, bStart, bEnd);
+        int aLength = aEnd - aStart;
+        if (aLength == 0 || aLength != bEnd - bStart) {
+            return false;
+        }
+        for (int k = 0; k < aLength; k++) {
+            char a = text.charAt(aStart + k);
+            char b = text.charAt(bStart + k);
+            if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int lettersEnd(StringBuilder text, int start, int end) {
+        while (end > start && !isWordChar(text.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private static void trimTrailingPunctuation(StringBuilder out) {
+        int end = out.length();
+        while (end > 0 && PUNCTUATION.indexOf(out.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        out.setLength(end);
+    }
+}
@@ -0,0 +1,136 @@
+package org.mamoru.omnichat.client.tts;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pitch-preserving time-stretch by WSOLA (waveform similarity overlap-add). Input frames are
+ * taken {@code speed} times as far apart as they are laid down in the output. Each frame is
+ * shifted within a few milliseconds to where its waveform best continues the previous frame,
+ * and the frames are overlap-added under a Hann window. Speech arrives phrase by phrase, so
+ * each call stretches one whole chunk. Windows are cached per frame size and the working arrays
+ * are reused per thread, so a call allocates nothing once they are large enough.
+ */
+final class TimeStretch {
+    private static final double FRAME_SECONDS = 0.03;
+    private static final double SEARCH_SECONDS = 0.008;
+    // Speeds this close to 1 are played as synthesized
+    private static final float IDENTITY_TOLERANCE = 0.01f;
+
+    // Hann windows by frame size
+    private static final Map<Integer, float[]> WINDOWS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private static final class Scratch {
+        float[] out = new float[0];
+        float[] weight = new float[0];
+        float[] reference = new float[0];
+    }
+
+    private TimeStretch() {
+    }
+
+    static boolean isIdentity(float speed) {
+        return Math.abs(speed - 1.0f) < IDENTITY_TOLERANCE;
+    }
+
+    /**
+     * Number of samples {@link #stretch} returns for a chunk of {@code length} samples.
+     */
+    static int stretchedLength(int length, float speed) {
+        return isIdentity(speed) ? length : (int) Math.round(length / (double) speed);
+    }
+
+    /**
+     * Returns the chunk played {@code speed} times as fast in its first
+     * {@link #stretchedLength} samples. The array belongs to the calling thread and is
+     * overwritten by its next call.
+     */
+    static float[] stretch(float[] samples, int offset, int length, float speed, int sampleRate) {
+        int outLength = stretchedLength(length, speed);
+        int frame = Math.max(8, (int) (sampleRate * FRAME_SECONDS)) & ~1;
+        // Half-overlapping frames: a periodic Hann window then sums to one
+        int hop = frame / 2;
+        int search = Math.max(1, (int) (sampleRate * SEARCH_SECONDS));
+
+        Scratch scratch = SCRATCH.get();
+        if (scratch.out.length < outLength + frame) {
+            int size = Math.max(outLength + frame, scratch.out.length * 2);
+            scratch.out = new float[size];
+            scratch.weight = new float[size];
+        }
+        float[] out = scratch.out;
+        if (isIdentity(speed) || length == 0) {
+            System.arraycopy(samples, offset, out, 0, length);
+            return out;
+        }
+        if (scratch.reference.length < hop) {
+            scratch.reference = new float[hop];
+        }
+        float[] weight = scratch.weight;
+        float[] reference = scratch.reference;
+        float[] window = WINDOWS.computeIfAbsent(frame, TimeStretch::hann);
+        Arrays.fill(out, 0, outLength + frame, 0.0f);
+        Arrays.fill(weight, 0, outLength + frame, 0.0f);
+        int previous = -1;
+        for (int outPos = 0; outPos < outLength; outPos += hop) {
+            int ideal = (int) Math.round(outPos * (double) speed);
+            int start = previous < 0 ? ideal
+                    : bestMatch(samples, offset, length, previous + hop, ideal, search, reference, hop);
+            for (int i = 0; i < frame; i++) {
+                int index = start + i;
+                if (index >= length) break;
+                out[outPos + i] += window[i] * samples[offset + index];
+                weight[outPos + i] += window[i];
+            }
+            previous = start;
+        }
+
+        for (int i = 0; i < outLength; i++) {
+            out[i] = weight[i] > 1e-6f ? out[i] / weight[i] : 0.0f;
+        }
+        return out;
+    }
+
+    /**
+     * Finds the frame start within {@code search} samples of {@code ideal} whose opening best
+     * matches the input that naturally follows the previous frame, starting at {@code natural}.
+     * The first {@code overlap} entries of {@code reference} are used as scratch.
+     */
+    private static int bestMatch(float[] samples, int offset, int length, int natural, int ideal,
+                                 int search, float[] reference, int overlap) {
+        int low = Math.max(0, ideal - search);
+        int high = Math.min(ideal + search, length - overlap);
+        if (high < low) {
+            return Math.max(0, Math.min(ideal, length - 1));
+        }
+        for (int i = 0; i < overlap; i++) {
+            int index = natural + i;
+            reference[i] = index < length ? samples[offset + index] : 0.0f;
+        }
+
+        int best = low;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (int candidate = low; candidate <= high; candidate++) {
+            int base = offset + candidate;
+            float score = 0.0f;
+            for (int i = 0; i < overlap; i++) {
+                score += reference[i] * samples[base + i];
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private static float[] hann(int size) {
+        float[] window = new float[size];
+        for (int i = 0; i < size; i++) {
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / size));
+        }
+        return window;
+    }
+}
@@ -10,9 +10,20 @@ import com.sun.jna.Native;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.jar.JarEntry;
+import java.util.stream.Stream;
 
 public class TtsEngine implements ITtsEngine {
     private static final Logger LOGGER = LoggerFactory.getLogger("OmniChat");
@@ -25,12 +36,16 @@ public class TtsEngine implements ITtsEngine {
             "sherpa-onnx-jni.dll"
     };
 
+    private static boolean nativesLoaded;
+
     private final OfflineTts tts;
     private final int sampleRate;
+    private final int numSpeakers;
 
-    private TtsEngine(OfflineTts tts) {
+    private TtsEngine(OfflineTts tts, int numSpeakers) {
         this.tts = tts;
         this.sampleRate = tts.getSampleRate();
+        this.numSpeakers = numSpeakers;
     }
 
     public static TtsEngine create(OmnichatConfig config) {
@@ -45,7 +60,7 @@ public class TtsEngine implements ITtsEngine {
         }
 
         String modelFile = findOnnxModel(modelDir);
-        validateVitsModel(Path.of(modelFile));
+        OnnxMetadata metadata = validateVitsModel(Path.of(modelFile));
 
         Path tokensFile = modelDir.resolve("tokens.txt");
         if (!Files.exists(tokensFile)) {
@@ -76,21 +91,45 @@ public class TtsEngine implements ITtsEngine {
                 .setDebug(false)
                 .build();
 
+        // One sentence per callback so streaming playback can start after the first sentence
         OfflineTtsConfig ttsConfig = OfflineTtsConfig.builder()
                 .setModel(modelConfig)
+                .setMaxNumSentences(1)
                 .build();
 
         OfflineTts offlineTts = new OfflineTts(ttsConfig);
-        LOGGER.info("TTS engine initialized (sampleRate={})", offlineTts.getSampleRate());
-        return new TtsEngine(offlineTts);
+        LOGGER.info("TTS engine initialized (sampleRate={}, speakers={}, language={})",
+                offlineTts.getSampleRate(), metadata.getNumSpeakers(), metadata.getLanguage());
+        return new TtsEngine(offlineTts, metadata.getNumSpeakers());
     }
 
     @Override
     public float[] generate(String text, int speakerId, float speed) {
-        GeneratedAudio audio = tts.generate(text, speakerId, 1.0f / speed);
+        GeneratedAudio audio = tts.generate(text, validSpeaker(speakerId), 1.0f / speed);
         return audio.getSamples();
     }
 
+    @Override
+    public boolean generateStreaming(String text, int speakerId, float speed, AudioSink sink) {
+        boolean[] cancelled = new boolean[1];
+        tts.generateWithCallback(text, validSpeaker(speakerId), 1.0f / speed, chunk -> {
+            if (cancelled[0] || chunk.length == 0) {
+                return cancelled[0] ? 0 : 1;
+            }
+            cancelled[0] = !sink.accept(chunk, 0, chunk.length);
+            // sherpa-onnx stops generating when the callback returns 0
+            return cancelled[0] ? 0 : 1;
+        });
+        return !cancelled[0];
+    }
+
+    /**
+     * A voice chosen for another model may name a speaker this model doesn't have.
+     */
+    private int validSpeaker(int speakerId) {
+        return numSpeakers > 0 && speakerId >= numSpeakers ? 0 : speakerId;
+    }
+
     @Override
     public int getSampleRate() {
         return sampleRate;
@@ -101,41 +140,121 @@ public class TtsEngine implements ITtsEngine {
         tts.release();
     }
 
-    private static void loadNativeLibraries() {
+    private static synchronized void loadNativeLibraries() {
+        // A DLL can only be loaded once per JVM; reinitializing TTS reuses the loaded ones
+        if (nativesLoaded) {
+            return;
+        }
+
         // Disable sherpa-onnx's own auto-loading; we handle it ourselves
         LibraryLoader.setAutoLoadEnabled(false);
 
-        Path tempDir;
+        Path nativeDir = extractNativeLibraries();
+
+        // Set DLL search directory so Windows can resolve dependent DLLs
+        NativeKernel32.INSTANCE.SetDllDirectoryA(nativeDir.toAbsolutePath().toString());
+
+        // Now load all DLLs in dependency order
+        for (String libName : NATIVE_LIBS) {
+            Path target = nativeDir.resolve(libName);
+            System.load(target.toAbsolutePath().toString());
+            LOGGER.debug("Loaded native library: {}", libName);
+        }
+        nativesLoaded = true;
+    }
+
+    /**
+     * Extracts the bundled libraries into a cache directory named after their jar entries' CRCs and
+     * sizes, so they are copied out of the jar only once per mod version. Files that are already there
+     * are reused; directories of other versions are removed.
+     */
+    private static Path extractNativeLibraries() {
+        String hash = nativeLibrariesKey();
+        Path cacheRoot = OmnichatConfig.getNativesDir();
+        Path nativeDir = cacheRoot.resolve(hash);
+
         try {
-            tempDir = Files.createTempDirectory("omnichat-natives");
-            tempDir.toFile().deleteOnExit();
+            Files.createDirectories(nativeDir);
+            for (String libName : NATIVE_LIBS) {
+                Path target = nativeDir.resolve(libName);
+                if (Files.exists(target)) continue;
+                try (InputStream is = openNativeLibrary(libName)) {
+                    // Another game instance may be extracting the same version
+                    Path temp = nativeDir.resolve(libName + ".tmp-" + ProcessHandle.current().pid());
+                    Files.copy(is, temp, StandardCopyOption.REPLACE_EXISTING);
+                    try {
+                        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException e) {
+                        Files.deleteIfExists(temp);
+                        if (!Files.exists(target)) {
+                            throw e;
+                        }
+                    }
+                }
+                LOGGER.debug("Extracted native library: {}", libName);
+            }
         } catch (IOException e) {
-            throw new RuntimeException("Failed to create temp dir for native libs", e);
+            throw new RuntimeException("Failed to extract native libraries to " + nativeDir, e);
         }
 
-        // First, extract all DLLs to temp directory
-        for (String libName : NATIVE_LIBS) {
-            String resourcePath = "/natives/win-x64/" + libName;
-            try (InputStream is = TtsEngine.class.getResourceAsStream(resourcePath)) {
-                if (is == null) {
-                    throw new RuntimeException("Native library not found in resources: " + resourcePath);
+        deleteOtherVersions(cacheRoot, nativeDir);
+        return nativeDir;
+    }
+
+    /**
+     * Hashes the CRC and size of each library from the jar's central directory, so the libraries
+     * themselves are not read. Run from a directory in development, size and modification time
+     * stand in for the CRC.
+     */
+    private static String nativeLibrariesKey() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer entry = ByteBuffer.allocate(2 * Long.BYTES);
+            for (String libName : NATIVE_LIBS) {
+                digest.update(libName.getBytes(StandardCharsets.UTF_8));
+                URLConnection connection = nativeLibraryUrl(libName).openConnection();
+                entry.clear();
+                if (connection instanceof JarURLConnection jar) {
+                    JarEntry jarEntry = jar.getJarEntry();
+                    entry.putLong(jarEntry.getCrc()).putLong(jarEntry.getSize());
+                } else {
+                    entry.putLong(connection.getLastModified()).putLong(connection.getContentLengthLong());
                 }
-                Path target = tempDir.resolve(libName);
-                Files.copy(is, target, StandardCopyOption.REPLACE_EXISTING);
-                target.toFile().deleteOnExit();
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to extract native library: " + libName, e);
+                digest.update(entry.array());
             }
+            return HexFormat.of().formatHex(digest.digest()).substring(0, 16);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new RuntimeException("Failed to read bundled native libraries", e);
         }
+    }
 
-        // Set DLL search directory so Windows can resolve dependent DLLs
-        NativeKernel32.INSTANCE.SetDllDirectoryA(tempDir.toAbsolutePath().toString());
+    private static URL nativeLibraryUrl(String libName) {
+        String resourcePath = "/natives/win-x64/" + libName;
+        URL url = TtsEngine.class.getResource(resourcePath);
+        if (url == null) {
+            throw new RuntimeException("Native library not found in resources: " + resourcePath);
+        }
+        return url;
+    }
 
-        // Now load all DLLs in dependency order
-        for (String libName : NATIVE_LIBS) {
-            Path target = tempDir.resolve(libName);
-            System.load(target.toAbsolutePath().toString());
-            LOGGER.debug("Loaded native library: {}", libName);
+    private static InputStream openNativeLibrary(String libName) throws IOException {
+        return nativeLibraryUrl(libName).openStream();
+    }
+
+    private static void deleteOtherVersions(Path cacheRoot, Path current) {
+        try (Stream<Path> dirs = Files.list(cacheRoot)) {
+            for (Path dir : dirs.filter(d -> !d.equals(current)).toList()) {
+                try (Stream<Path> files = Files.walk(dir)) {
+                    // Deepest first; libraries still loaded by another game instance stay behind
+                    for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (IOException e) {
+                    LOGGER.debug("Could not remove old native libraries in '{}': {}", dir, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Could not list native library cache: {}", e.getMessage());
         }
     }
 
@@ -146,35 +265,21 @@ public class TtsEngine implements ITtsEngine {
 
     /**
      * Validates that the ONNX model is a VITS TTS model by checking for
-     * 'n_speakers' in the binary metadata. Models without this field crash
+     * 'n_speakers' in its metadata. Models without this field crash
      * the JVM at the native level (not catchable by try/catch).
      */
-    private static void validateVitsModel(Path modelPath) {
+    private static OnnxMetadata validateVitsModel(Path modelPath) {
+        OnnxMetadata metadata;
         try {
-            byte[] data = Files.readAllBytes(modelPath);
-            String marker = "n_speakers";
-            byte[] markerBytes = marker.getBytes(java.nio.charset.StandardCharsets.US_ASCII);
-            boolean found = false;
-            for (int i = 0; i <= data.length - markerBytes.length; i++) {
-                boolean match = true;
-                for (int j = 0; j < markerBytes.length; j++) {
-                    if (data[i + j] != markerBytes[j]) {
-                        match = false;
-                        break;
-                    }
-                }
-                if (match) {
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
-                throw new RuntimeException("Model " + modelPath.getFileName()
-                        + " is not a compatible VITS model (missing 'n_speakers' metadata)");
-            }
+            metadata = OnnxMetadata.read(modelPath);
         } catch (IOException e) {
             throw new RuntimeException("Failed to read model file: " + modelPath, e);
         }
+        if (!metadata.has("n_speakers")) {
+            throw new RuntimeException("Model " + modelPath.getFileName()
+                    + " is not a compatible VITS model (missing 'n_speakers' metadata)");
+        }
+        return metadata;
     }
 
     private static String findOnnxModel(Path modelDir) {
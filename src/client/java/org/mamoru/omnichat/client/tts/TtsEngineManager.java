@@ -0,0 +1,422 @@
+package org.mamoru.omnichat.client.tts;
+
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the engines of other players' voices loaded within a native memory budget. Engines are
+ * evicted least recently used first when a new one doesn't fit, and after sitting idle for the
+ * configured timeout. The default engine is pinned and never evicted. Engines a worker holds a
+ * {@link Lease} on are not evicted until it is closed.
+ */
+public class TtsEngineManager {
+    private static final Logger LOGGER = LoggerFactory.getLogger("OmniChat");
+    private static final long SWEEP_INTERVAL_SEC = 15;
+    // Without a usable measurement, assume the runtime needs about 1.5x the weights
+    private static final double FILE_SIZE_FACTOR = 1.5;
+    // A model that failed to load isn't retried for this long, unless its files change
+    private static final long FAILURE_BACKOFF_MS = 5 * 60 * 1000;
+
+    private final Path modelsDir;
+    private final Function<Path, ITtsEngine> loader;
+    private final long budgetBytes;
+    private final long idleTimeoutMs;
+    private final ScheduledExecutorService scheduler;
+
+    // Access-ordered: iteration starts at the least recently used engine
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<ITtsEngine>> loading = new ConcurrentHashMap<>();
+    private final Map<String, Failure> failures = new ConcurrentHashMap<>();
+    private boolean shutdown;
+    private String defaultModel;
+    private ITtsEngine defaultEngine;
+
+    private static final class Entry {
+        final String modelName;
+        final ITtsEngine engine;
+        final long bytesPerInstance;
+        final boolean pinned;
+        volatile long lastUsedMs;
+        // Open leases; guarded by the manager
+        int users;
+        // Removed at shutdown while still leased, released when the last lease closes
+        boolean retired;
+
+        Entry(String modelName, ITtsEngine engine, long bytesPerInstance, boolean pinned) {
+            this.modelName = modelName;
+            this.engine = engine;
+            this.bytesPerInstance = bytesPerInstance;
+            this.pinned = pinned;
+            this.lastUsedMs = System.currentTimeMillis();
+        }
+
+        long estimatedBytes() {
+            int instances = engine instanceof TtsEnginePool pool ? pool.getInstanceCount() : 1;
+            return bytesPerInstance * instances;
+        }
+    }
+
+    /**
+     * An engine held by a worker for the duration of a synthesis. Closing it lets the engine be
+     * evicted again.
+     */
+    public static final class Lease implements AutoCloseable {
+        @Nullable private final TtsEngineManager manager;
+        @Nullable private final Entry entry;
+        private final ITtsEngine engine;
+        private boolean closed;
+
+        private Lease(@Nullable TtsEngineManager manager, @Nullable Entry entry, ITtsEngine engine) {
+            this.manager = manager;
+            this.entry = entry;
+            this.engine = engine;
+        }
+
+        /**
+         * A lease on an engine not owned by a manager; closing it does nothing.
+         */
+        public static Lease unmanaged(ITtsEngine engine) {
+            return new Lease(null, null, engine);
+        }
+
+        public ITtsEngine engine() {
+            return engine;
+        }
+
+        @Override
+        public void close() {
+            if (closed || manager == null) {
+                return;
+            }
+            closed = true;
+            manager.returnLease(entry);
+        }
+    }
+
+    private record Failure(@Nullable String fingerprint, long retryAtMs) {}
+
+    public record EngineStats(String modelName, long estimatedBytes, int instances, long idleMs, boolean pinned) {}
+
+    public TtsEngineManager(Path modelsDir, Function<Path, ITtsEngine> loader, long budgetBytes, long idleTimeoutMs) {
+        this.modelsDir = modelsDir;
+        this.loader = loader;
+        this.budgetBytes = budgetBytes;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "OmniChat-Engine-Manager");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::evictIdle, SWEEP_INTERVAL_SEC, SWEEP_INTERVAL_SEC, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Registers the engine of the configured model; it is pinned for the manager's lifetime.
+     */
+    public synchronized void setDefault(String modelName, ITtsEngine engine) {
+        this.defaultModel = modelName;
+        this.defaultEngine = engine;
+        entries.put(modelName, new Entry(modelName, engine,
+                estimateFromFiles(modelsDir.resolve(modelName)), true));
+    }
+
+    public ITtsEngine getDefault() {
+        return defaultEngine;
+    }
+
+    /**
+     * Returns the engine for the given model if it is loaded. Otherwise starts loading it in the
+     * background and returns the default engine, so a slow model load never stalls synthesis.
+     */
+    public ITtsEngine getOrFallback(@Nullable String modelName) {
+        ITtsEngine engine = getAsync(modelName).getNow(null);
+        return engine != null ? engine : defaultEngine;
+    }
+
+    /**
+     * Like {@link #getOrFallback}, but keeps the returned engine from being evicted until the
+     * lease is closed.
+     */
+    public Lease acquire(@Nullable String modelName) {
+        if (modelName != null) {
+            synchronized (this) {
+                Lease lease = lease(modelName);
+                if (lease != null) {
+                    return lease;
+                }
+            }
+            // Not loaded yet, start loading it for next time
+            getAsync(modelName);
+        }
+        synchronized (this) {
+            Lease lease = lease(defaultModel);
+            return lease != null ? lease : Lease.unmanaged(defaultEngine);
+        }
+    }
+
+    @Nullable
+    private Lease lease(String modelName) {
+        Entry entry = entries.get(modelName);
+        if (entry == null) {
+            return null;
+        }
+        entry.users++;
+        entry.lastUsedMs = System.currentTimeMillis();
+        return new Lease(this, entry, entry.engine);
+    }
+
+    private void returnLease(Entry entry) {
+        synchronized (this) {
+            entry.users--;
+            entry.lastUsedMs = System.currentTimeMillis();
+            if (!entry.retired || entry.users > 0) {
+                return;
+            }
+        }
+        entry.engine.release();
+    }
+
+    /**
+     * Starts loading the model ahead of its first message. Does nothing if it is already loaded.
+     */
+    public void preload(String modelName) {
+        getAsync(modelName);
+    }
+
+    /**
+     * Completes with the engine for the given model once it is loaded, or with the default engine
+     * if the model is unavailable or fails to load.
+     */
+    public CompletableFuture<ITtsEngine> getAsync(@Nullable String modelName) {
+        if (modelName == null || modelName.equals(defaultModel)) {
+            touch(defaultModel);
+            return CompletableFuture.completedFuture(defaultEngine);
+        }
+
+        ITtsEngine engine = touch(modelName);
+        if (engine != null) {
+            return CompletableFuture.completedFuture(engine);
+        }
+
+        Path modelDir = modelsDir.resolve(modelName);
+        if (!Files.isDirectory(modelDir)) {
+            LOGGER.debug("Model '{}' not available locally, using default engine", modelName);
+            return CompletableFuture.completedFuture(defaultEngine);
+        }
+        if (isBackingOff(modelName)) {
+            return CompletableFuture.completedFuture(defaultEngine);
+        }
+
+        CompletableFuture<ITtsEngine> pending = loading.get(modelName);
+        if (pending != null) {
+            return pending;
+        }
+        // Loads run one at a time on the manager thread, which also keeps the memory
+        // measurement attributable to the model being loaded. The load only starts once the
+        // future is in the map, so its removal can't run before the insertion.
+        CompletableFuture<ITtsEngine> future = new CompletableFuture<>();
+        pending = loading.putIfAbsent(modelName, future);
+        if (pending != null) {
+            return pending;
+        }
+        future.whenComplete((result, error) -> loading.remove(modelName, future));
+        try {
+            scheduler.execute(() -> {
+                try {
+                    future.complete(load(modelName, modelDir));
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shut down
+            future.complete(defaultEngine);
+        }
+        return future;
+    }
+
+    private ITtsEngine load(String modelName, Path modelDir) {
+        ITtsEngine existing = touch(modelName);
+        if (existing != null) {
+            return existing;
+        }
+
+        long fileEstimate = estimateFromFiles(modelDir);
+        makeRoom(fileEstimate, null);
+
+        long before = ProcessMemory.currentBytes();
+        ITtsEngine engine;
+        try {
+            LOGGER.info("Loading engine for model '{}'", modelName);
+            engine = loader.apply(modelDir);
+        } catch (Exception e) {
+            LOGGER.warn("Failed to load engine for model '{}', using default for {} s: {}",
+                    modelName, FAILURE_BACKOFF_MS / 1000, e.getMessage());
+            failures.put(modelName, new Failure(ModelFingerprint.of(modelName),
+                    System.currentTimeMillis() + FAILURE_BACKOFF_MS));
+            return defaultEngine;
+        }
+        long after = ProcessMemory.currentBytes();
+
+        long measured = before > 0 && after > 0 ? after - before : -1;
+        long estimate = measured > 0 ? Math.max(measured, fileEstimate / 2) : fileEstimate;
+        synchronized (this) {
+            if (shutdown) {
+                engine.release();
+                return defaultEngine;
+            }
+            entries.put(modelName, new Entry(modelName, engine, estimate, false));
+        }
+        LOGGER.info("Engine for model '{}' loaded (~{} MB, measured {} MB); engines now use ~{} MB of {} MB",
+                modelName, estimate >> 20, measured >> 20, getUsedBytes() >> 20, budgetBytes >> 20);
+        makeRoom(0, modelName);
+        return engine;
+    }
+
+    /**
+     * Whether the model failed to load recently. A re-downloaded model has a new fingerprint and
+     * is tried again right away.
+     */
+    private boolean isBackingOff(String modelName) {
+        Failure failure = failures.get(modelName);
+        if (failure == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() < failure.retryAtMs()
+                && Objects.equals(failure.fingerprint(), ModelFingerprint.of(modelName))) {
+            return true;
+        }
+        failures.remove(modelName, failure);
+        return false;
+    }
+
+    @Nullable
+    private synchronized ITtsEngine touch(String modelName) {
+        Entry entry = entries.get(modelName);
+        if (entry == null) {
+            return null;
+        }
+        entry.lastUsedMs = System.currentTimeMillis();
+        return entry.engine;
+    }
+
+    /**
+     * Evicts least recently used engines until {@code incomingBytes} more fit in the budget.
+     */
+    private void makeRoom(long incomingBytes, @Nullable String keep) {
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            long used = getUsedBytes();
+            Iterator<Entry> it = entries.values().iterator();
+            while (used + incomingBytes > budgetBytes && it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.pinned || entry.users > 0 || entry.modelName.equals(keep)) continue;
+                used -= entry.estimatedBytes();
+                evicted.add(entry);
+                it.remove();
+            }
+        }
+        for (Entry entry : evicted) {
+            LOGGER.info("Evicting engine for model '{}' to stay within the memory budget", entry.modelName);
+            entry.engine.release();
+        }
+    }
+
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (!entry.pinned && entry.users == 0 && now - entry.lastUsedMs > idleTimeoutMs) {
+                    evicted.add(entry);
+                    it.remove();
+                }
+            }
+        }
+        for (Entry entry : evicted) {
+            LOGGER.info("Releasing engine for model '{}' after {} s idle",
+                    entry.modelName, (now - entry.lastUsedMs) / 1000);
+            entry.engine.release();
+        }
+    }
+
+    public synchronized long getUsedBytes() {
+        long used = 0;
+        for (Entry entry : entries.values()) {
+            used += entry.estimatedBytes();
+        }
+        return used;
+    }
+
+    public synchronized List<EngineStats> getStats() {
+        long now = System.currentTimeMillis();
+        List<EngineStats> stats = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            int instances = entry.engine instanceof TtsEnginePool pool ? pool.getInstanceCount() : 1;
+            stats.add(new EngineStats(entry.modelName, entry.estimatedBytes(), instances,
+                    now - entry.lastUsedMs, entry.pinned));
+        }
+        return stats;
+    }
+
+    /**
+     * Stops the sweeper and releases every engine, including the default one. Engines still
+     * leased are released when their last lease closes.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        List<Entry> idle = new ArrayList<>();
+        synchronized (this) {
+            shutdown = true;
+            for (Entry entry : entries.values()) {
+                if (entry.users > 0) {
+                    entry.retired = true;
+                } else {
+                    idle.add(entry);
+                }
+            }
+            entries.clear();
+        }
+        for (Entry entry : idle) {
+            entry.engine.release();
+        }
+    }
+
+    private static long estimateFromFiles(Path modelDir) {
+        try (Stream<Path> files = Files.list(modelDir)) {
+            long bytes = files.filter(p -> p.getFileName().toString().endsWith(".onnx"))
+                    .mapToLong(p -> {
+                        try {
+                            return Files.size(p);
+                        } catch (IOException e) {
+                            return 0;
+                        }
+                    })
+                    .sum();
+            return (long) (bytes * FILE_SIZE_FACTOR);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
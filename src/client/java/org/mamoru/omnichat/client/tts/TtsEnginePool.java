@@ -0,0 +1,138 @@
+package org.mamoru.omnichat.client.tts;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Several instances of the same model behind one {@link ITtsEngine}. A single
+ * {@code OfflineTts}/{@code OrtSession} serializes its callers, so each call borrows an idle
+ * instance and extra instances are created on demand up to {@code maxInstances}.
+ */
+public class TtsEnginePool implements ITtsEngine {
+    private static final Logger LOGGER = LoggerFactory.getLogger("OmniChat");
+
+    private final Supplier<ITtsEngine> factory;
+    private final int sampleRate;
+    private final int maxBatchSize;
+    private final ArrayDeque<ITtsEngine> idle = new ArrayDeque<>();
+    private int maxInstances;
+    private int created;
+    private boolean released;
+
+    public TtsEnginePool(ITtsEngine first, Supplier<ITtsEngine> factory, int maxInstances) {
+        this.factory = factory;
+        this.sampleRate = first.getSampleRate();
+        this.maxBatchSize = first.getMaxBatchSize();
+        this.maxInstances = Math.max(1, maxInstances);
+        this.idle.push(first);
+        this.created = 1;
+    }
+
+    @Override
+    public float[] generate(String text, int speakerId, float speed) {
+        ITtsEngine engine = borrow();
+        try {
+            return engine.generate(text, speakerId, speed);
+        } finally {
+            giveBack(engine);
+        }
+    }
+
+    @Override
+    public boolean generateStreaming(String text, int speakerId, float speed, AudioSink sink) {
+        ITtsEngine engine = borrow();
+        try {
+            return engine.generateStreaming(text, speakerId, speed, sink);
+        } finally {
+            giveBack(engine);
+        }
+    }
+
+    @Override
+    public List<float[]> generateBatch(List<String> texts, int speakerId, float speed) {
+        ITtsEngine engine = borrow();
+        try {
+            return engine.generateBatch(texts, speakerId, speed);
+        } finally {
+            giveBack(engine);
+        }
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Releases idle instances now; instances still in use are released when they are returned.
+     */
+    @Override
+    public synchronized void release() {
+        released = true;
+        for (ITtsEngine engine : idle) {
+            engine.release();
+        }
+        idle.clear();
+        notifyAll();
+    }
+
+    public synchronized int getInstanceCount() {
+        return created;
+    }
+
+    private ITtsEngine borrow() {
+        synchronized (this) {
+            while (true) {
+                if (released) {
+                    throw new IllegalStateException("Engine pool has been released");
+                }
+                ITtsEngine engine = idle.poll();
+                if (engine != null) {
+                    return engine;
+                }
+                if (created < maxInstances) {
+                    created++;
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for a TTS engine", e);
+                }
+            }
+        }
+
+        // Model loading takes seconds, don't hold the lock while doing it
+        try {
+            ITtsEngine engine = factory.get();
+            LOGGER.debug("Created additional TTS engine instance ({} of {})", created, maxInstances);
+            return engine;
+        } catch (Exception e) {
+            LOGGER.warn("Failed to create additional TTS engine instance: {}", e.getMessage());
+            synchronized (this) {
+                created--;
+                maxInstances = Math.max(1, created);
+            }
+            return borrow();
+        }
+    }
+
+    private synchronized void giveBack(ITtsEngine engine) {
+        if (released) {
+            engine.release();
+            return;
+        }
+        idle.push(engine);
+        notifyAll();
+    }
+}
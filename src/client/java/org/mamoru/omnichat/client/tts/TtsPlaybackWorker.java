@@ -1,84 +1,448 @@
 package org.mamoru.omnichat.client.tts;
 
+import org.jetbrains.annotations.Nullable;
 import org.mamoru.omnichat.client.OmnichatClient;
 import org.mamoru.omnichat.client.config.OmnichatConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TtsPlaybackWorker {
     private static final Logger LOGGER = LoggerFactory.getLogger("OmniChat");
+    // Speech is synthesized and cached at normal speed; other speeds are time-stretched on playback
+    private static final float SYNTHESIS_SPEED = 1.0f;
 
-    private final BlockingQueue<TtsRequest> queue;
     private final ITtsEngine defaultEngine;
     private final OmnichatConfig config;
-    private final Thread workerThread;
+    private final AudioCache audioCache;
+    @Nullable private final DiskAudioCache diskCache;
+    private final TtsScheduler scheduler;
+    private final SpeechRateController rate;
+    // Batch size of each model's engine, for the scheduler to read without resolving engines
+    private final Map<String, Integer> batchLimits = new ConcurrentHashMap<>();
+    private final List<Thread> workerThreads = new ArrayList<>();
+    // Requests dropped at dequeue because the sender was out of earshot, and syntheses stopped
+    // part way for the same reason
+    private final AtomicLong inaudible = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    // Messages sped up or shortened to work off a backlog
+    private final AtomicLong spedUp = new AtomicLong();
+    private final AtomicLong shortened = new AtomicLong();
 
-    public TtsPlaybackWorker(ITtsEngine defaultEngine, OmnichatConfig config) {
+    public TtsPlaybackWorker(ITtsEngine defaultEngine, OmnichatConfig config, AudioCache audioCache,
+                             @Nullable DiskAudioCache diskCache) {
         this.defaultEngine = defaultEngine;
         this.config = config;
-        this.queue = new LinkedBlockingQueue<>(config.getMaxQueueSize());
+        this.audioCache = audioCache;
+        this.diskCache = diskCache;
+        this.scheduler = new TtsScheduler(config);
+        this.rate = new SpeechRateController(config.isAdaptiveRate(), config.getMaxSpeedUp());
+        rememberBatchLimit(null, defaultEngine);
 
-        this.workerThread = new Thread(this::run, "OmniChat-TTS-Worker");
-        this.workerThread.setDaemon(true);
+        int threads = config.getSynthesisThreads();
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(this::run, "OmniChat-TTS-Worker-" + (i + 1));
+            thread.setDaemon(true);
+            workerThreads.add(thread);
+        }
     }
 
     public void start() {
-        workerThread.start();
-        LOGGER.info("TTS playback worker started");
+        workerThreads.forEach(Thread::start);
+        LOGGER.info("TTS playback worker started ({} threads)", workerThreads.size());
     }
 
     public void shutdown() {
-        workerThread.interrupt();
-        queue.clear();
+        workerThreads.forEach(Thread::interrupt);
+        scheduler.clear();
         SpatialAudioPlayer.cleanupAll();
-        LOGGER.info("TTS playback worker stopped");
+        TtsScheduler.Stats schedulerStats = scheduler.getStats();
+        LOGGER.info("TTS playback worker stopped ({} spoken, {} merged, {} batched, {} shed: {} expired, {} queue full, {} rate limited, {} duplicates)",
+                schedulerStats.dispatched(), schedulerStats.coalesced(), schedulerStats.batched(),
+                schedulerStats.shed(), schedulerStats.expired(),
+                schedulerStats.overflowed(), schedulerStats.rateLimited(), schedulerStats.duplicates());
+        SpatialAudioPlayer.Stats audioStats = SpatialAudioPlayer.getStats();
+        LOGGER.info("Out of earshot: {} skipped before synthesis, {} cancelled during synthesis, {} culled before playback, {} cut off; voice limit: {} stopped, {} dropped",
+                inaudible.get(), cancelled.get(), audioStats.culled(), audioStats.cutOff(),
+                audioStats.stolen(), audioStats.dropped());
+        LOGGER.info("Backlog: {} sped up, {} shortened, real-time factor {}",
+                spedUp.get(), shortened.get(), String.format("%.2f", rate.getRealTimeFactor()));
+        AudioCache.Stats stats = audioCache.getStats();
+        LOGGER.info("Audio cache: {} hits, {} misses, {} entries, {} KB",
+                stats.hits(), stats.misses(), stats.entries(), stats.usedBytes() / 1024);
+        if (diskCache != null) {
+            DiskAudioCache.Stats diskStats = diskCache.getStats();
+            LOGGER.info("Disk audio cache: {} hits, {} misses, {} entries, {} KB",
+                    diskStats.hits(), diskStats.misses(), diskStats.entries(), diskStats.usedBytes() / 1024);
+        }
     }
 
     public void enqueue(TtsRequest request) {
-        while (!queue.offer(request)) {
-            queue.poll();
-        }
+        scheduler.submit(request);
+    }
+
+    /**
+     * Whether no message is queued or being synthesized.
+     */
+    public boolean isIdle() {
+        return scheduler.isIdle();
+    }
+
+    public TtsScheduler.Stats getSchedulerStats() {
+        return scheduler.getStats();
     }
 
     private void run() {
         while (!Thread.currentThread().isInterrupted()) {
+            TtsScheduler.Dispatch dispatch;
             try {
-                TtsRequest request = queue.take();
-                processMessage(request);
+                dispatch = scheduler.take(this::getBatchLimit);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 break;
+            }
+
+            // Messages synthesized ahead and waiting on their sender count towards the backlog too
+            rate.update(scheduler.getStats().pending() + SpatialAudioPlayer.getWaitingCount());
+            try {
+                if (dispatch.requests().size() == 1) {
+                    processMessage(dispatch.requests().get(0));
+                } else {
+                    processBatch(dispatch.requests());
+                }
             } catch (Exception e) {
                 LOGGER.error("Error processing TTS message", e);
+            } finally {
+                scheduler.complete(dispatch);
             }
         }
     }
 
-    private void processMessage(TtsRequest request) {
-        // Pick the engine for the sender's model (falls back to default if unavailable)
-        ITtsEngine engine = OmnichatClient.getEngineForModel(request.modelName());
+    /**
+     * Called by the scheduler under its lock, so it only reads what {@link #rememberBatchLimit}
+     * saw. A model no message was spoken with yet is not batched.
+     */
+    private int getBatchLimit(@Nullable String modelName) {
+        return batchLimits.getOrDefault(modelName != null ? modelName : config.getModelPath(), 1);
+    }
+
+    private void rememberBatchLimit(@Nullable String modelName, ITtsEngine engine) {
+        String name = modelName != null ? modelName : config.getModelPath();
+        // A fallback to the default engine says nothing about the requested model
+        if (engine != defaultEngine || name.equals(config.getModelPath())) {
+            batchLimits.put(name, engine.getMaxBatchSize());
+        }
+    }
+
+    /**
+     * A request resolved against the engine that will speak it.
+     */
+    private record Job(TtsRequest request, int speakerId, AudioCache.Key cacheKey,
+                       @Nullable String fingerprint, int sampleRate, float speed) {}
 
+    private Job prepare(ITtsEngine engine, TtsRequest request) {
         // Use speakerId from request (server voice) if available, otherwise fall back to config
         int speakerId = request.speakerId() >= 0 ? request.speakerId() : config.getSpeakerId();
 
-        float[] samples = engine.generate(request.text(), speakerId, config.getSpeed());
-        if (samples == null || samples.length == 0) {
+        // Fallbacks to the default engine must not be cached under the requested model's name
+        String modelName = engine == defaultEngine || request.modelName() == null
+                ? config.getModelPath() : request.modelName();
+        AudioCache.Key cacheKey = AudioCache.Key.of(modelName, speakerId, SYNTHESIS_SPEED,
+                config.isRobotEffect(), request.text());
+        String fingerprint = diskCache != null ? ModelFingerprint.of(modelName) : null;
+        float speedFactor = rate.speedFactor();
+        if (!TimeStretch.isIdentity(speedFactor)) {
+            spedUp.incrementAndGet();
+        }
+        return new Job(request, speakerId, cacheKey, fingerprint, engine.getSampleRate(),
+                config.getSpeed() * speedFactor);
+    }
+
+    /**
+     * Shortens the request if it is too long to speak in full under the current backlog.
+     */
+    private TtsRequest adapt(TtsRequest request) {
+        String text = SpeechRateController.shorten(request.text(), rate.maxChars());
+        if (text.equals(request.text())) {
+            return request;
+        }
+        shortened.incrementAndGet();
+        LOGGER.debug("Shortened TTS message to {} of {} characters", text.length(), request.text().length());
+        return new TtsRequest(text, request.senderUuid(), request.modelName(), request.speakerId(),
+                request.distance(), request.mentionsLocalPlayer(), request.enqueuedAtMs(), request.deadlineMs());
+    }
+
+    /**
+     * Opens the job's stream. It starts playing once the sender's previous message has played,
+     * plus a pause that shrinks under backlog.
+     */
+    private SpatialAudioPlayer.AudioStream openStream(Job job) {
+        return SpatialAudioPlayer.openStream(job.sampleRate(), job.request().senderUuid(), rate.gapMs());
+    }
+
+    /**
+     * Plays the job from the memory or disk cache. Returns false on a miss.
+     * <p>
+     * Audio not played at synthesis speed is stretched once and kept in the memory cache under
+     * the playback speed, so repeats don't stretch it again.
+     */
+    private boolean playCached(Job job) {
+        AudioCache.Key stretchedKey = null;
+        if (!TimeStretch.isIdentity(job.speed())) {
+            AudioCache.Key key = job.cacheKey();
+            stretchedKey = new AudioCache.Key(key.model(), key.speakerId(), job.speed(), key.robotEffect(), key.text());
+            // A miss falls back to the synthesis-speed entry below, which counts it
+            short[] stretched = audioCache.probe(stretchedKey);
+            if (stretched != null) {
+                LOGGER.debug("Audio cache hit for '{}' at speed {}", key.text(), job.speed());
+                playInt16(job, stretched);
+                return true;
+            }
+        }
+
+        short[] cached = audioCache.get(job.cacheKey());
+        if (cached == null && job.fingerprint() != null) {
+            cached = diskCache.get(job.cacheKey(), job.fingerprint());
+            if (cached != null) {
+                audioCache.put(job.cacheKey(), cached);
+            }
+        }
+        if (cached == null) {
+            return false;
+        }
+        LOGGER.debug("Audio cache hit for '{}'", job.cacheKey().text());
+        if (stretchedKey != null) {
+            float[] samples = AudioUtils.int16ToFloat(cached);
+            float[] stretched = TimeStretch.stretch(samples, 0, samples.length, job.speed(), job.sampleRate());
+            cached = new short[TimeStretch.stretchedLength(samples.length, job.speed())];
+            AudioUtils.floatToInt16(stretched, 0, cached.length, cached, 0);
+            audioCache.put(stretchedKey, cached);
+        }
+        playInt16(job, cached);
+        return true;
+    }
+
+    private void playInt16(Job job, short[] samples) {
+        SpatialAudioPlayer.AudioStream stream = openStream(job);
+        ByteBuffer pcm = stream.allocate(samples.length);
+        AudioUtils.int16ToPcm(samples, config.getVolume(), pcm, stream.isFloat());
+        stream.write(pcm);
+        stream.finish();
+    }
+
+    private void store(Job job, @Nullable short[] recorded) {
+        if (recorded != null && recorded.length > 0) {
+            audioCache.put(job.cacheKey(), recorded);
+            if (job.fingerprint() != null) {
+                diskCache.put(job.cacheKey(), job.fingerprint(), recorded);
+            }
+        }
+    }
+
+    /**
+     * Whether the request is still worth speaking. Senders may have moved away, left or changed
+     * dimension while it waited in the queue.
+     */
+    private boolean isAudible(TtsRequest request) {
+        if (SpatialAudioPlayer.isAudible(request.senderUuid())) {
+            return true;
+        }
+        inaudible.incrementAndGet();
+        LOGGER.debug("Skipping TTS for '{}', sender out of earshot", request.text());
+        return false;
+    }
+
+    private void processMessage(TtsRequest request) {
+        if (!isAudible(request)) {
             return;
         }
+        request = adapt(request);
+        // Pick the engine for the sender's model (falls back to default while it loads or if
+        // unavailable); the lease keeps it from being evicted mid-synthesis
+        try (TtsEngineManager.Lease lease = OmnichatClient.acquireEngine(request.modelName())) {
+            ITtsEngine engine = lease.engine();
+            rememberBatchLimit(request.modelName(), engine);
+            Job job = prepare(engine, request);
+            if (!playCached(job)) {
+                synthesizeStreaming(engine, job);
+            }
+        }
+    }
+
+    private void synthesizeStreaming(ITtsEngine engine, Job job) {
+        SpatialAudioPlayer.AudioStream stream = openStream(job);
+        StreamingSink sink = new StreamingSink(stream, job.sampleRate(), job.speed(), audioCache.getMaxEntrySamples());
+        try {
+            long start = System.nanoTime();
+            if (engine.generateStreaming(job.request().text(), job.speakerId(), SYNTHESIS_SPEED, sink)) {
+                rate.recordSynthesis(System.nanoTime() - start, sink.getSynthesized(), job.sampleRate());
+                store(job, sink.getRecorded());
+            } else {
+                cancelled.incrementAndGet();
+            }
+        } finally {
+            stream.finish();
+        }
+    }
+
+    /**
+     * Synthesizes the cache misses of a batch in one inference call. All requests share the model
+     * and speaker, as guaranteed by the scheduler.
+     */
+    private void processBatch(List<TtsRequest> requests) {
+        try (TtsEngineManager.Lease lease = OmnichatClient.acquireEngine(requests.get(0).modelName())) {
+            rememberBatchLimit(requests.get(0).modelName(), lease.engine());
+            processBatch(lease.engine(), requests);
+        }
+    }
+
+    private void processBatch(ITtsEngine engine, List<TtsRequest> requests) {
+        List<Job> misses = new ArrayList<>(requests.size());
+        for (TtsRequest request : requests) {
+            if (!isAudible(request)) {
+                continue;
+            }
+            request = adapt(request);
+            Job job = prepare(engine, request);
+            if (!playCached(job)) {
+                misses.add(job);
+            }
+        }
+        if (misses.isEmpty()) {
+            return;
+        }
+        if (misses.size() == 1) {
+            synthesizeStreaming(engine, misses.get(0));
+            return;
+        }
+
+        List<String> texts = new ArrayList<>(misses.size());
+        for (Job job : misses) {
+            texts.add(job.request().text());
+        }
+        long start = System.nanoTime();
+        List<float[]> outputs = engine.generateBatch(texts, misses.get(0).speakerId(), SYNTHESIS_SPEED);
+        long synthesized = 0;
+        for (float[] samples : outputs) {
+            synthesized += samples.length;
+        }
+        rate.recordSynthesis(System.nanoTime() - start, synthesized, misses.get(0).sampleRate());
 
+        for (int i = 0; i < misses.size(); i++) {
+            Job job = misses.get(i);
+            float[] samples = outputs.get(i);
+            if (samples.length == 0) {
+                continue;
+            }
+            if (!SpatialAudioPlayer.isAudible(job.request().senderUuid())) {
+                // The audio is already paid for, keep it for the next time the phrase comes up
+                cancelled.incrementAndGet();
+                store(job, recordUnplayed(job, samples));
+                continue;
+            }
+            SpatialAudioPlayer.AudioStream stream = openStream(job);
+            StreamingSink sink = new StreamingSink(stream, job.sampleRate(), job.speed(), audioCache.getMaxEntrySamples());
+            try {
+                // The whole output goes in at once, so the recording is complete even if playback
+                // was cut off
+                sink.accept(samples, 0, samples.length);
+                store(job, sink.getRecorded());
+            } finally {
+                stream.finish();
+            }
+        }
+    }
+
+    /**
+     * The int16 copy {@link StreamingSink} would have kept, for output that is not played.
+     */
+    @Nullable
+    private short[] recordUnplayed(Job job, float[] samples) {
+        if (samples.length > audioCache.getMaxEntrySamples()) {
+            return null;
+        }
         if (config.isRobotEffect()) {
-            AudioUtils.applyRobotEffect(samples, engine.getSampleRate());
+            AudioUtils.applyRobotEffect(samples, job.sampleRate());
         }
+        short[] recorded = new short[samples.length];
+        AudioUtils.floatToInt16(samples, 0, samples.length, recorded, 0);
+        return recorded;
+    }
 
-        byte[] pcmData = AudioUtils.floatPcmToInt16(samples, config.getVolume());
+    /**
+     * Applies effects to each synthesized chunk and queues it for playback right away, keeping an
+     * int16 copy of the whole utterance for the audio cache. The copy is at synthesis speed; the
+     * playback speed is applied by time-stretching after it is taken.
+     */
+    private class StreamingSink implements AudioSink {
+        private final SpatialAudioPlayer.AudioStream stream;
+        private final int sampleRate;
+        private final float speed;
+        private final int maxRecordedSamples;
+        private short[] recorded = new short[0];
+        private long position;
+
+        StreamingSink(SpatialAudioPlayer.AudioStream stream, int sampleRate, float speed, int maxRecordedSamples) {
+            this.stream = stream;
+            this.sampleRate = sampleRate;
+            this.speed = speed;
+            this.maxRecordedSamples = maxRecordedSamples;
+        }
+
+        @Override
+        public boolean accept(float[] samples, int offset, int length) {
+            if (TimeStretch.isIdentity(speed)) {
+                ByteBuffer chunk = stream.allocate(length);
+                // Leaves the effected samples in place for the recording below
+                AudioUtils.render(samples, offset, length, sampleRate, position,
+                        config.isRobotEffect(), config.getVolume(), chunk, stream.isFloat());
+                record(samples, offset, length);
+                stream.write(chunk);
+            } else {
+                if (config.isRobotEffect()) {
+                    AudioUtils.applyRobotEffect(samples, offset, length, sampleRate, position);
+                }
+                record(samples, offset, length);
+                float[] stretched = TimeStretch.stretch(samples, offset, length, speed, sampleRate);
+                int stretchedLength = TimeStretch.stretchedLength(length, speed);
+                ByteBuffer chunk = stream.allocate(stretchedLength);
+                AudioUtils.render(stretched, 0, stretchedLength, sampleRate, 0,
+                        false, config.getVolume(), chunk, stream.isFloat());
+                stream.write(chunk);
+            }
+            position += length;
+            return !stream.isClosed();
+        }
+
+        private void record(float[] samples, int offset, int length) {
+            if (recorded == null) {
+                return;
+            }
+            int recordedLength = (int) position;
+            if ((long) recordedLength + length > maxRecordedSamples) {
+                // Too long to be worth caching
+                recorded = null;
+                return;
+            }
+            if (recordedLength + length > recorded.length) {
+                recorded = Arrays.copyOf(recorded, Math.max(recordedLength + length, recorded.length * 2));
+            }
+            AudioUtils.floatToInt16(samples, offset, length, recorded, recordedLength);
+        }
+
+        long getSynthesized() {
+            return position;
+        }
 
-        if (request.senderUuid() != null) {
-            SpatialAudioPlayer.playSpatial(pcmData, engine.getSampleRate(), request.senderUuid());
-        } else {
-            SpatialAudioPlayer.playMono(pcmData, engine.getSampleRate());
+        short[] getRecorded() {
+            return recorded == null ? null : Arrays.copyOf(recorded, (int) position);
         }
     }
 }
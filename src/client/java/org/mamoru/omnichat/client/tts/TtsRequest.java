@@ -4,8 +4,21 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.UUID;
 
-public record TtsRequest(String text, @Nullable UUID senderUuid, @Nullable String modelName, int speakerId) {
+/**
+ * A chat message waiting to be spoken. {@code distance} is the sender's distance when the message
+ * arrived (-1 if unknown); requests still queued after {@code deadlineMs} are dropped unspoken.
+ */
+public record TtsRequest(String text, @Nullable UUID senderUuid, @Nullable String modelName, int speakerId,
+                         double distance, boolean mentionsLocalPlayer, long enqueuedAtMs, long deadlineMs) {
+    public TtsRequest(String text, @Nullable UUID senderUuid, @Nullable String modelName, int speakerId) {
+        this(text, senderUuid, modelName, speakerId, -1, false, System.currentTimeMillis(), Long.MAX_VALUE);
+    }
+
     public TtsRequest(String text, @Nullable UUID senderUuid) {
         this(text, senderUuid, null, -1);
     }
+
+    public boolean isExpired(long now) {
+        return now > deadlineMs;
+    }
 }
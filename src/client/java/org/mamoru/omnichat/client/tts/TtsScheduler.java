@@ -0,0 +1,463 @@
+package org.mamoru.omnichat.client.tts;
+
+import org.mamoru.omnichat.client.chat.ChatMessageHandler;
+import org.mamoru.omnichat.client.config.OmnichatConfig;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+
+/**
+ * Decides which queued message is synthesized next. Messages are kept in one FIFO lane per sender
+ * and a lane is handed to at most one worker at a time, so a sender's messages stay in order while
+ * different senders are synthesized in parallel.
+ * <p>
+ * Lanes share the synthesis workers by weighted fair queuing: each message gets a virtual finish
+ * tag from its length divided by its weight, and the free lane whose head finishes first wins.
+ * Nearby senders and messages mentioning the local player weigh more; a sender with many queued
+ * messages falls behind others instead of monopolizing the workers. Before queuing, each sender is
+ * rate limited by a token bucket and repeats of a recent message are collapsed. Messages past
+ * their deadline are dropped without being synthesized.
+ * <p>
+ * With a coalescing window, consecutive messages a sender typed in quick succession are merged
+ * into one utterance, so they cost one inference call and one audio source instead of several.
+ * <p>
+ * For engines that can batch, short messages waiting at the head of other lanes for the same
+ * voice are dispatched together with the chosen one and synthesized in a single inference call.
+ */
+public class TtsScheduler {
+    // Lane key for messages without a sender (system messages)
+    private static final Object SYSTEM_LANE = new Object();
+
+    private static final double BASE_WEIGHT = 0.25;
+    private static final double PROXIMITY_WEIGHT = 1.0;
+    private static final double MENTION_WEIGHT = 1.0;
+    // Short messages still pay the fixed per-inference overhead
+    private static final int MIN_COST = 8;
+    private static final long SENDER_STATE_TTL_MS = 10 * 60 * 1000;
+    private static final int MAX_COALESCED_CHARS = 300;
+    // Longer messages are streamed phrase by phrase instead, which batching would give up
+    private static final int MAX_BATCH_TEXT_CHARS = 120;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    private final Map<Object, ArrayDeque<Queued>> lanes = new HashMap<>();
+    private final Map<Object, SenderState> senders = new HashMap<>();
+    private final Set<Object> busyLanes = new HashSet<>();
+    private final int maxQueueSize;
+    private final double tokensPerMs;
+    private final double burst;
+    private final long duplicateWindowMs;
+    private final long coalesceWindowMs;
+    private final int maxBatchSize;
+    private int pending;
+    private double virtualTime;
+
+    private long dispatched;
+    private long expired;
+    private long overflowed;
+    private long rateLimited;
+    private long duplicates;
+    private long coalesced;
+    private long batched;
+
+    private record Queued(TtsRequest request, double startTag, double finishTag) {}
+
+    private record Recent(String normalized, long timeMs) {}
+
+    private static final class SenderState {
+        double tokens;
+        long lastRefillMs;
+        long lastSeenMs;
+        double lastFinishTag;
+        final ArrayDeque<Recent> recent = new ArrayDeque<>();
+
+        SenderState(double tokens, long now) {
+            this.tokens = tokens;
+            this.lastRefillMs = now;
+            this.lastSeenMs = now;
+        }
+    }
+
+    /**
+     * Messages handed to one worker; more than one only if they can be synthesized as a batch.
+     */
+    public record Dispatch(List<Object> lanes, List<TtsRequest> requests) {}
+
+    public record Stats(int pending, long dispatched, long expired, long overflowed, long rateLimited, long duplicates,
+                        long coalesced, long batched) {
+        public long shed() {
+            return expired + overflowed + rateLimited + duplicates;
+        }
+    }
+
+    public TtsScheduler(OmnichatConfig config) {
+        this.maxQueueSize = Math.max(1, config.getMaxQueueSize());
+        this.tokensPerMs = config.getSenderRateLimitPerMin() / 60_000.0;
+        this.burst = config.getSenderBurst();
+        this.duplicateWindowMs = config.getDuplicateWindowMs();
+        this.coalesceWindowMs = config.getCoalesceWindowMs();
+        this.maxBatchSize = Math.max(1, config.getMaxBatchSize());
+    }
+
+    /**
+     * Queues a message unless its sender is over the rate limit or just said the same thing, or
+     * the queue is full and the message would be served last. Returns false if the message was shed.
+     */
+    public boolean submit(TtsRequest request) {
+        Object key = request.senderUuid() != null ? request.senderUuid() : SYSTEM_LANE;
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            dropExpired(now);
+            pruneSenders(now);
+
+            SenderState sender = senders.computeIfAbsent(key, k -> new SenderState(burst, now));
+            sender.lastSeenMs = now;
+            String normalized = normalizeForDuplicates(request.text());
+            if (isDuplicate(sender, normalized, now)) {
+                duplicates++;
+                return false;
+            }
+            // Server announcements are not rate limited
+            if (key != SYSTEM_LANE && !tryConsumeToken(sender, now)) {
+                rateLimited++;
+                return false;
+            }
+
+            double previousFinish = sender.lastFinishTag;
+            double start = Math.max(virtualTime, previousFinish);
+            double finish = start + cost(request) / weight(request);
+            sender.lastFinishTag = finish;
+            Queued queued = new Queued(request, start, finish);
+            lanes.computeIfAbsent(key, k -> new ArrayDeque<>()).add(queued);
+            pending++;
+            boolean kept = true;
+            while (pending > maxQueueSize) {
+                kept &= dropLatestFinish() != queued;
+            }
+            if (!kept) {
+                // The new message would be served last, so it never entered the queue
+                sender.lastFinishTag = previousFinish;
+                return false;
+            }
+            // Only messages that were accepted count, a shed one may be said again
+            sender.recent.addLast(new Recent(normalized, now));
+            workAvailable.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until a message from a free lane is available and marks its lane busy. If
+     * {@code batchLimit} allows more than one message for the chosen model, waiting messages of
+     * other lanes for the same voice are added. The caller must pass the dispatch to
+     * {@link #complete} when done.
+     */
+    public Dispatch take(ToIntFunction<String> batchLimit) throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                dropExpired(now);
+
+                Object bestKey = null;
+                double bestFinish = Double.POSITIVE_INFINITY;
+                long nextRelease = Long.MAX_VALUE;
+                for (Map.Entry<Object, ArrayDeque<Queued>> entry : lanes.entrySet()) {
+                    if (busyLanes.contains(entry.getKey())) continue;
+                    long heldUntil = heldUntil(entry.getValue());
+                    if (heldUntil > now) {
+                        nextRelease = Math.min(nextRelease, heldUntil);
+                        continue;
+                    }
+                    double finish = entry.getValue().peek().finishTag();
+                    if (finish < bestFinish) {
+                        bestFinish = finish;
+                        bestKey = entry.getKey();
+                    }
+                }
+
+                if (bestKey != null) {
+                    List<Object> keys = new ArrayList<>();
+                    List<TtsRequest> requests = new ArrayList<>();
+                    TtsRequest first = dispatchLane(bestKey);
+                    keys.add(bestKey);
+                    requests.add(first);
+                    if (first.text().length() <= MAX_BATCH_TEXT_CHARS) {
+                        int limit = Math.min(maxBatchSize, batchLimit.applyAsInt(first.modelName()));
+                        if (limit > 1) {
+                            addBatchPartners(first, keys, requests, limit, now);
+                        }
+                    }
+                    dispatched += requests.size();
+                    return new Dispatch(keys, requests);
+                }
+
+                if (nextRelease == Long.MAX_VALUE) {
+                    workAvailable.await();
+                } else {
+                    workAvailable.await(nextRelease - now, TimeUnit.MILLISECONDS);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private TtsRequest dispatchLane(Object key) {
+        ArrayDeque<Queued> lane = lanes.get(key);
+        Queued queued = lane.poll();
+        pending--;
+        TtsRequest request = coalesceWindowMs > 0 ? coalesce(queued.request(), lane) : queued.request();
+        if (lane.isEmpty()) {
+            lanes.remove(key);
+        }
+        busyLanes.add(key);
+        virtualTime = Math.max(virtualTime, queued.startTag());
+        return request;
+    }
+
+    /**
+     * Adds the heads of other free lanes that use the same voice as {@code first}, in fair
+     * queuing order, until the batch holds {@code limit} messages.
+     */
+    private void addBatchPartners(TtsRequest first, List<Object> keys, List<TtsRequest> requests, int limit, long now) {
+        List<Map.Entry<Object, ArrayDeque<Queued>>> candidates = new ArrayList<>();
+        for (Map.Entry<Object, ArrayDeque<Queued>> entry : lanes.entrySet()) {
+            if (busyLanes.contains(entry.getKey()) || heldUntil(entry.getValue()) > now) continue;
+            TtsRequest head = entry.getValue().peek().request();
+            if (Objects.equals(head.modelName(), first.modelName())
+                    && head.speakerId() == first.speakerId()
+                    && head.text().length() <= MAX_BATCH_TEXT_CHARS) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort(Comparator.comparingDouble(entry -> entry.getValue().peek().finishTag()));
+        for (Map.Entry<Object, ArrayDeque<Queued>> entry : candidates) {
+            if (requests.size() >= limit) break;
+            Object key = entry.getKey();
+            keys.add(key);
+            requests.add(dispatchLane(key));
+            batched++;
+        }
+    }
+
+    /**
+     * A lone message that just arrived is held for the coalescing window in case its sender is
+     * still typing follow-up lines.
+     */
+    private long heldUntil(ArrayDeque<Queued> lane) {
+        if (coalesceWindowMs <= 0 || lane.size() > 1) {
+            return 0;
+        }
+        return lane.peek().request().enqueuedAtMs() + coalesceWindowMs;
+    }
+
+    /**
+     * Merges the following queued messages of the lane into {@code first} while they use the same
+     * voice and were sent within the coalescing window of each other.
+     */
+    private TtsRequest coalesce(TtsRequest first, ArrayDeque<Queued> lane) {
+        StringBuilder text = null;
+        TtsRequest last = first;
+        double distance = first.distance();
+        boolean mentions = first.mentionsLocalPlayer();
+        while (!lane.isEmpty()) {
+            TtsRequest next = lane.peek().request();
+            int length = text != null ? text.length() : first.text().length();
+            if (!Objects.equals(next.modelName(), first.modelName())
+                    || next.speakerId() != first.speakerId()
+                    || next.enqueuedAtMs() - last.enqueuedAtMs() > coalesceWindowMs
+                    || length + next.text().length() + 2 > MAX_COALESCED_CHARS) {
+                break;
+            }
+            lane.poll();
+            pending--;
+            coalesced++;
+            if (text == null) {
+                text = new StringBuilder(first.text());
+            }
+            appendWithPause(text, next.text());
+            distance = Math.min(distance, next.distance());
+            mentions |= next.mentionsLocalPlayer();
+            last = next;
+        }
+        if (text == null) {
+            return first;
+        }
+        return new TtsRequest(text.toString(), first.senderUuid(), first.modelName(), first.speakerId(),
+                distance, mentions, first.enqueuedAtMs(), last.deadlineMs());
+    }
+
+    /**
+     * Joins lines with a comma unless the previous one already ends a sentence: both engines pause
+     * there, and a comma keeps short lines in a single inference call.
+     */
+    private static void appendWithPause(StringBuilder text, String next) {
+        char end = text.charAt(text.length() - 1);
+        if (end != '.' && end != '!' && end != '?' && end != '…' && end != ',') {
+            text.append(',');
+        }
+        text.append(' ').append(next);
+    }
+
+    public void complete(Dispatch dispatch) {
+        lock.lock();
+        try {
+            for (Object lane : dispatch.lanes()) {
+                busyLanes.remove(lane);
+                if (lanes.containsKey(lane)) {
+                    workAvailable.signal();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            lanes.clear();
+            senders.clear();
+            pending = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isIdle() {
+        lock.lock();
+        try {
+            return pending == 0 && busyLanes.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats getStats() {
+        lock.lock();
+        try {
+            return new Stats(pending, dispatched, expired, overflowed, rateLimited, duplicates, coalesced, batched);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Share of the synthesis workers a message is entitled to, relative to other senders.
+     */
+    static double weight(TtsRequest request) {
+        double proximity = request.distance() < 0 ? 1.0
+                : 1.0 - Math.min(1.0, request.distance() / ChatMessageHandler.MAX_DISTANCE);
+        return BASE_WEIGHT
+                + PROXIMITY_WEIGHT * proximity
+                + (request.mentionsLocalPlayer() ? MENTION_WEIGHT : 0.0);
+    }
+
+    private static double cost(TtsRequest request) {
+        return Math.max(MIN_COST, request.text().length());
+    }
+
+    private boolean tryConsumeToken(SenderState sender, long now) {
+        sender.tokens = Math.min(burst, sender.tokens + (now - sender.lastRefillMs) * tokensPerMs);
+        sender.lastRefillMs = now;
+        if (sender.tokens < 1.0) {
+            return false;
+        }
+        sender.tokens -= 1.0;
+        return true;
+    }
+
+    private boolean isDuplicate(SenderState sender, String normalized, long now) {
+        while (!sender.recent.isEmpty() && now - sender.recent.peekFirst().timeMs() > duplicateWindowMs) {
+            sender.recent.pollFirst();
+        }
+        for (Recent recent : sender.recent) {
+            if (recent.normalized().equals(normalized)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reduces a message to what it sounds like: case, spacing, punctuation and stretched letters
+     * ("lol", "LOL!!", "lolll") don't make it a different message.
+     */
+    static String normalizeForDuplicates(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        int last = -1;
+        for (int i = 0; i < text.length(); ) {
+            int cp = Character.toLowerCase(text.codePointAt(i));
+            i += Character.charCount(cp);
+            if (!Character.isLetterOrDigit(cp) || cp == last) {
+                continue;
+            }
+            sb.appendCodePoint(cp);
+            last = cp;
+        }
+        return sb.toString();
+    }
+
+    private void pruneSenders(long now) {
+        senders.entrySet().removeIf(entry -> !lanes.containsKey(entry.getKey())
+                && !busyLanes.contains(entry.getKey())
+                && now - entry.getValue().lastSeenMs > SENDER_STATE_TTL_MS);
+    }
+
+    private void dropExpired(long now) {
+        Iterator<ArrayDeque<Queued>> it = lanes.values().iterator();
+        while (it.hasNext()) {
+            ArrayDeque<Queued> lane = it.next();
+            int before = lane.size();
+            lane.removeIf(queued -> queued.request().isExpired(now));
+            int removed = before - lane.size();
+            pending -= removed;
+            expired += removed;
+            if (lane.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the message that would be served last and returns it, or null if nothing was queued.
+     */
+    private Queued dropLatestFinish() {
+        ArrayDeque<Queued> worstLane = null;
+        Queued worst = null;
+        for (ArrayDeque<Queued> lane : lanes.values()) {
+            Queued last = lane.peekLast();
+            if (last != null && (worst == null || last.finishTag() > worst.finishTag())) {
+                worst = last;
+                worstLane = lane;
+            }
+        }
+        if (worst == null) {
+            pending = 0;
+            return null;
+        }
+        worstLane.pollLast();
+        pending--;
+        overflowed++;
+        if (worstLane.isEmpty()) {
+            lanes.values().remove(worstLane);
+        }
+        return worst;
+    }
+}
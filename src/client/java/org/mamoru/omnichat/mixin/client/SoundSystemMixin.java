@@ -0,0 +1,26 @@
+package org.mamoru.omnichat.mixin.client;
+
+import net.minecraft.client.sound.SoundSystem;
+import org.mamoru.omnichat.client.tts.SpatialAudioPlayer;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * The sound engine destroys and recreates its OpenAL device and context on F3+T, resource and
+ * sound option reloads and output device changes. Speech stops before the context goes away and
+ * resumes on the new one.
+ */
+@Mixin(SoundSystem.class)
+public class SoundSystemMixin {
+    @Inject(method = "stop()V", at = @At("HEAD"))
+    private void onStop(CallbackInfo ci) {
+        SpatialAudioPlayer.suspend();
+    }
+
+    @Inject(method = "start()V", at = @At("TAIL"))
+    private void onStart(CallbackInfo ci) {
+        SpatialAudioPlayer.resume();
+    }
+}
@@ -0,0 +1,73 @@
+package org.mamoru.omnichat.benchmark;
+
+import org.mamoru.omnichat.client.tts.AudioUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Post-processing of one synthesized chunk: the robot effect and the conversion to 16-bit PCM.
+ * The build runs it with the Vector API enabled; drop {@code --add-modules} from the jmh task to
+ * measure the scalar kernel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AudioUtilsBenchmark {
+    private static final int SAMPLE_RATE = 22050;
+
+    // A short phrase and a few seconds of speech
+    @Param({"4096", "88200"})
+    public int samples;
+
+    private float[] source;
+    private float[] work;
+    private short[] pcm;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        source = new float[samples];
+        for (int i = 0; i < samples; i++) {
+            // Speech-like level with some clipping peaks
+            source[i] = (float) (Math.sin(i * 0.05) * 0.6 + random.nextGaussian() * 0.15);
+        }
+        work = new float[samples];
+        pcm = new short[samples];
+    }
+
+    @Benchmark
+    public float[] robotEffect() {
+        // The effect works in place, start from the same signal every time
+        System.arraycopy(source, 0, work, 0, samples);
+        AudioUtils.applyRobotEffect(work, 0, samples, SAMPLE_RATE, 0);
+        return work;
+    }
+
+    @Benchmark
+    public byte[] floatPcmToInt16() {
+        return AudioUtils.floatPcmToInt16(source, 0, samples, 0.8f);
+    }
+
+    @Benchmark
+    public short[] robotEffectToInt16() {
+        System.arraycopy(source, 0, work, 0, samples);
+        AudioUtils.render(work, 0, samples, SAMPLE_RATE, 0, true, 0.8f, pcm, 0);
+        return pcm;
+    }
+}
@@ -0,0 +1,121 @@
+package org.mamoru.omnichat.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * Chat lines the benchmarks run over, and a synthetic GLaDOS-style model directory so the G2P can
+ * be measured without a real voice model.
+ */
+final class ChatCorpus {
+
+    private ChatCorpus() {
+    }
+
+    static List<String> lines() {
+        try (InputStream in = ChatCorpus.class.getResourceAsStream("/chat-corpus.txt")) {
+            if (in == null) {
+                throw new IllegalStateException("chat-corpus.txt missing from the benchmark resources");
+            }
+            List<String> lines = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isBlank()) {
+                        lines.add(line);
+                    }
+                }
+            }
+            return lines;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes {@code config.json} with a phoneme per letter and a {@code dictionary.txt} covering
+     * {@code dictionaryShare} of the corpus words, spelled letter by letter. The other words take
+     * the out-of-vocabulary path.
+     */
+    static Path createGladosModel(List<String> lines, double dictionaryShare) throws IOException {
+        TreeSet<String> words = new TreeSet<>();
+        TreeSet<Character> letters = new TreeSet<>();
+        for (String line : lines) {
+            for (String word : line.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+                if (word.isEmpty()) continue;
+                words.add(word);
+                for (char c : word.toCharArray()) {
+                    letters.add(c);
+                }
+            }
+        }
+
+        StringBuilder config = new StringBuilder("{\"phoneme_id_map\": {");
+        int id = 0;
+        for (String symbol : List.of("_", "^", "$", " ", "!", "'", "(", ")", ",", "-", ".", ":", ";", "?")) {
+            config.append(id == 0 ? "" : ", ").append('"').append(symbol).append("\": [").append(id++).append(']');
+        }
+        for (char c : letters) {
+            config.append(", \"").append(c == '"' || c == '\\' ? "\\" + c : String.valueOf(c))
+                    .append("\": [").append(id++).append(']');
+        }
+        config.append("}}");
+
+        Random random = new Random(42);
+        StringBuilder dictionary = new StringBuilder();
+        for (String word : words) {
+            if (random.nextDouble() >= dictionaryShare) continue;
+            dictionary.append(word).append(' ');
+            for (int i = 0; i < word.length(); i++) {
+                dictionary.append(i == 0 ? "" : " ").append(word.charAt(i));
+            }
+            dictionary.append('\n');
+        }
+
+        Path dir = Files.createTempDirectory("omnichat-jmh-model");
+        Files.writeString(dir.resolve("config.json"), config, StandardCharsets.UTF_8);
+        Files.writeString(dir.resolve("dictionary.txt"), dictionary, StandardCharsets.UTF_8);
+        return dir;
+    }
+
+    /**
+     * Removes a directory made by {@link #createGladosModel}.
+     */
+    static void deleteModel(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Approximates the pixel widths of Minecraft's default font.
+     */
+    static int fontWidth(String text) {
+        int width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            width += switch (text.charAt(i)) {
+                case 'i', '.', ',', ':', ';', '!', '|', '\'' -> 2;
+                case 'l', '`' -> 3;
+                case 'I', 't', '[', ']', ' ' -> 4;
+                case 'f', 'k', '<', '>', '(', ')', '"', '{', '}', '*' -> 5;
+                default -> 6;
+            };
+        }
+        return width;
+    }
+}
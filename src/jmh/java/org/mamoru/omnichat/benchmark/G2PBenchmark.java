@@ -0,0 +1,70 @@
+package org.mamoru.omnichat.benchmark;
+
+import org.mamoru.omnichat.client.tts.GladosG2P;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text to phoneme ids for every line of the chat corpus.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class G2PBenchmark {
+    // Share of corpus words found in the dictionary
+    @Param({"0.9", "0.5"})
+    public double dictionaryShare;
+
+    private String[] lines;
+    private Path modelDir;
+    private GladosG2P g2p;
+    private final GladosG2P.PhonemeIds ids = new GladosG2P.PhonemeIds();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        List<String> corpus = ChatCorpus.lines();
+        lines = corpus.toArray(new String[0]);
+        modelDir = ChatCorpus.createGladosModel(corpus, dictionaryShare);
+        g2p = new GladosG2P(modelDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ChatCorpus.deleteModel(modelDir);
+    }
+
+    @Benchmark
+    public void intoReusedBuffer(Blackhole bh) {
+        for (String line : lines) {
+            g2p.textToPhonemeIds(line, ids);
+            bh.consume(ids.size());
+        }
+    }
+
+    @Benchmark
+    public void toArray(Blackhole bh) {
+        for (String line : lines) {
+            bh.consume(g2p.textToPhonemeIds(line));
+        }
+    }
+}
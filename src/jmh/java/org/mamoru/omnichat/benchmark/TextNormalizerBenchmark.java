@@ -0,0 +1,45 @@
+package org.mamoru.omnichat.benchmark;
+
+import org.mamoru.omnichat.client.tts.TextNormalizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text normalization for every line of the chat corpus, as done on the game thread per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextNormalizerBenchmark {
+    // Same as the config default
+    private static final int MAX_PHONEMES = 150;
+
+    private String[] lines;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        lines = ChatCorpus.lines().toArray(new String[0]);
+    }
+
+    @Benchmark
+    public void normalize(Blackhole bh) {
+        for (String line : lines) {
+            bh.consume(TextNormalizer.normalize(line, null, MAX_PHONEMES));
+        }
+    }
+}
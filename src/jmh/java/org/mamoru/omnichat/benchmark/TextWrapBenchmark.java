@@ -0,0 +1,45 @@
+package org.mamoru.omnichat.benchmark;
+
+import org.mamoru.omnichat.client.chat.TextWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chat bubble word wrapping for every line of the chat corpus, as done each frame per bubble.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextWrapBenchmark {
+    // Same as ChatBubbleRenderer
+    private static final int MAX_LINE_WIDTH = 200;
+
+    private String[] lines;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        lines = ChatCorpus.lines().toArray(new String[0]);
+    }
+
+    @Benchmark
+    public void wrap(Blackhole bh) {
+        for (String line : lines) {
+            bh.consume(TextWrapper.wrap(line, MAX_LINE_WIDTH, ChatCorpus::fontWidth));
+        }
+    }
+}
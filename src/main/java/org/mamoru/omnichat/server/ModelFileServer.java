@@ -46,7 +46,12 @@ public class ModelFileServer {
     private void sendModelFiles(ServerPlayerEntity player, String modelName, Path modelDir) throws IOException {
         List<Path> files;
         try (Stream<Path> stream = Files.walk(modelDir)) {
-            files = stream.filter(Files::isRegularFile).toList();
+            // Optimized graphs, metadata caches and compiled dictionaries a local client saved
+            // next to the model are rebuilt by each client
+            files = stream.filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().contains(".onnx.")
+                            && !p.getFileName().toString().startsWith("dictionary.bin"))
+                    .toList();
         }
 
         // Calculate total size of all files
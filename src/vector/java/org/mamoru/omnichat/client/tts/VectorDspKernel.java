@@ -0,0 +1,73 @@
+package org.mamoru.omnichat.client.tts;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * SIMD kernel on the incubating Vector API. Only loaded when the {@code jdk.incubator.vector}
+ * module is in the boot layer; see {@link AudioUtils}. Produces the same samples as
+ * {@link ScalarDspKernel}.
+ * <p>
+ * Lives in its own source set, the only one compiled with the incubator module, and is looked up
+ * by name so the rest of the client never links against it.
+ */
+final class VectorDspKernel implements DspKernel {
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    // Same lane count as FLOATS, for the narrowing to int16
+    private static final VectorSpecies<Short> SHORTS =
+            VectorSpecies.of(short.class, VectorShape.forBitSize(FLOATS.vectorBitSize() / 2));
+    // Copies the first lane of every sample-and-hold block over the rest of the block
+    private static final VectorShuffle<Float> HOLD_SHUFFLE = VectorShuffle.fromOp(FLOATS, i -> i & -HOLD);
+
+    VectorDspKernel() {
+        if (FLOATS.length() < HOLD || FLOATS.length() % HOLD != 0
+                || FLOATS.length() > AudioUtils.OSCILLATOR_PADDING) {
+            throw new UnsupportedOperationException("Unsupported vector length " + FLOATS.length());
+        }
+    }
+
+    @Override
+    public int lanes() {
+        return FLOATS.length();
+    }
+
+    @Override
+    public void render(float[] samples, int offset, int length,
+                       @Nullable float[] oscillator, int oscillatorIndex, int period,
+                       float volume, @Nullable short[] dest16, @Nullable float[] dest32, int destOffset) {
+        int step = FLOATS.length();
+        int bound = FLOATS.loopBound(length);
+        int phase = oscillatorIndex;
+        int i = 0;
+        for (; i < bound; i += step) {
+            FloatVector v = FloatVector.fromArray(FLOATS, samples, offset + i);
+            if (oscillator != null) {
+                // The table is padded past the period, so a full vector can always be read at phase
+                FloatVector scaled = v.mul(FloatVector.fromArray(FLOATS, oscillator, phase)).mul(8.0f).add(0.5f);
+                // floor() via truncation, corrected for negative values
+                FloatVector truncated = (FloatVector) scaled.convert(VectorOperators.F2I, 0)
+                        .convert(VectorOperators.I2F, 0);
+                FloatVector floored = truncated.sub(1.0f, scaled.lt(truncated));
+                v = floored.mul(0.125f).rearrange(HOLD_SHUFFLE);
+                v.intoArray(samples, offset + i);
+                phase = (phase + step) % period;
+            }
+            if (dest16 != null) {
+                FloatVector pcm = v.mul(volume).max(-1.0f).min(1.0f).mul((float) Short.MAX_VALUE);
+                ((ShortVector) pcm.convertShape(VectorOperators.F2S, SHORTS, 0)).intoArray(dest16, destOffset + i);
+            } else if (dest32 != null) {
+                v.mul(volume).max(-1.0f).min(1.0f).intoArray(dest32, destOffset + i);
+            }
+        }
+        if (i < length) {
+            // bound is a multiple of the hold block, so the tail starts on a block boundary
+            ScalarDspKernel.INSTANCE.render(samples, offset + i, length - i,
+                    oscillator, phase, period, volume, dest16, dest32, destOffset + i);
+        }
+    }
+}